@@ -0,0 +1,103 @@
+package com.velox.sloan;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmarks of encoding CMO Sample Id request and decoding its response in every {@link CmoIdWireFormat}. Payload
+ * sizes of both formats are reported as secondary results so that bytes on the wire can be compared as well: payload
+ * size is {@code requestBytes} or {@code responseBytes} divided by {@code payloads}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CmoIdWireFormatBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int recordCount;
+
+    @Param({"JSON", "SMILE"})
+    public CmoIdWireFormat format;
+
+    private List<CorrectedCmoSampleView> correctedCmoSampleViews;
+    private byte[] encodedViews;
+    private byte[] encodedCmoIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        FakeLims fakeLims = new FakeLims(0);
+        try (StubLimsRestServer limsRest = new StubLimsRestServer(0)) {
+            File propertiesFile = limsRest.writePropertiesFile(new Properties());
+            LimsRestClientHolder limsRestClient = LimsRestClientHolder.get(propertiesFile.getPath());
+            prepareViews(new CmoSampleIdRegenerator(fakeLims.getDataRecordManager(), null, limsRestClient,
+                    message -> {
+                    }), fakeLims);
+        }
+    }
+
+    private void prepareViews(CmoSampleIdRegenerator regenerator, FakeLims fakeLims) throws Exception {
+        List<CmoInfoRecord> cmoInfoRecords = regenerator.loadCmoInfoRecords(fakeLims.createSampleCmoInfoRecords
+                (recordCount));
+        regenerator.indexParentSamples(cmoInfoRecords);
+        regenerator.convert(cmoInfoRecords);
+
+        correctedCmoSampleViews = cmoInfoRecords.stream()
+                .map(CmoInfoRecord::getCorrectedCmoSampleView)
+                .collect(Collectors.toList());
+
+        ByteArrayOutputStream views = new ByteArrayOutputStream();
+        CmoIdCodec.writeViews(correctedCmoSampleViews, views, false, format);
+        encodedViews = views.toByteArray();
+
+        ObjectNode igoIdToCmoId = format.getObjectMapper().createObjectNode();
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords)
+            igoIdToCmoId.put(cmoInfoRecord.getFields().getIgoId(), cmoInfoRecord.getCurrentCmoId());
+        encodedCmoIds = format.getObjectMapper().writeValueAsBytes(igoIdToCmoId);
+    }
+
+    @Benchmark
+    public byte[] encodeRequest(PayloadSize payloadSize) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(encodedViews.length);
+        CmoIdCodec.writeViews(correctedCmoSampleViews, output, false, format);
+        payloadSize.requestBytes += output.size();
+        payloadSize.payloads++;
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public void decodeResponse(Blackhole blackhole, PayloadSize payloadSize) throws IOException {
+        CmoIdCodec.readCmoIds(new ByteArrayInputStream(encodedCmoIds), (igoId, cmoId) -> blackhole.consume(cmoId),
+                format);
+        payloadSize.responseBytes += encodedCmoIds.length;
+        payloadSize.payloads++;
+    }
+
+    /**
+     * Bytes encoded or decoded by benchmark and number of payloads they belong to. JMH sums events over iterations and
+     * threads, their ratio is size of one payload.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long requestBytes;
+        public long responseBytes;
+        public long payloads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requestBytes = 0;
+            responseBytes = 0;
+            payloads = 0;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.velox.sloan;
+
+import com.velox.api.datarecord.DataRecord;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmarks of CMO Sample Id regeneration phases and whole regeneration for growing number of Sample CMO Info
+ * Records. LIMS is replaced by {@link FakeLims} and LimsRest by {@link StubLimsRestServer}. Request coalescing and
+ * background precomputation are off so that every invocation measures its own LimsRest round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CmoSampleIdRegenerationBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int recordCount;
+
+    @Param({"1"})
+    public long limsCallLatencyMillis;
+
+    @Param({"5"})
+    public long limsRestLatencyMillis;
+
+    /**
+     * Every n-th LimsRest request fails with 503 and has to be retried, 0 for no failures.
+     */
+    @Param({"0"})
+    public int limsRestFailEvery;
+
+    private StubLimsRestServer limsRest;
+    private LimsRestClientHolder limsRestClient;
+    private FakeLims fakeLims;
+    private List<DataRecord> records;
+    private List<CmoInfoRecord> cmoInfoRecords;
+    private CmoSampleIdRegenerator preparedRegenerator;
+    private List<CorrectedCmoSampleView> correctedCmoSampleViews;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        limsRest = new StubLimsRestServer(limsRestLatencyMillis);
+        limsRest.setFailEvery(limsRestFailEvery);
+        Properties overrides = new Properties();
+        overrides.setProperty("lims.rest.cmoid.coalescing.enabled", "false");
+        overrides.setProperty("cmoid.precompute.enabled", "false");
+        File propertiesFile = limsRest.writePropertiesFile(overrides);
+        limsRestClient = LimsRestClientHolder.get(propertiesFile.getPath());
+
+        fakeLims = new FakeLims(limsCallLatencyMillis);
+        records = fakeLims.createSampleCmoInfoRecords(recordCount);
+
+        preparedRegenerator = newRegenerator();
+        cmoInfoRecords = preparedRegenerator.loadCmoInfoRecords(records);
+        preparedRegenerator.indexParentSamples(cmoInfoRecords);
+        preparedRegenerator.convert(cmoInfoRecords);
+
+        correctedCmoSampleViews = cmoInfoRecords.stream()
+                .map(CmoInfoRecord::getCorrectedCmoSampleView)
+                .collect(Collectors.toList());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        limsRest.close();
+    }
+
+    private CmoSampleIdRegenerator newRegenerator() {
+        return new CmoSampleIdRegenerator(fakeLims.getDataRecordManager(), null, limsRestClient, message -> {
+        });
+    }
+
+    @Benchmark
+    public List<CmoInfoRecord> load() throws Exception {
+        return newRegenerator().loadCmoInfoRecords(records);
+    }
+
+    @Benchmark
+    public void parentResolution() throws Exception {
+        newRegenerator().indexParentSamples(cmoInfoRecords);
+    }
+
+    @Benchmark
+    public String validation() throws Exception {
+        preparedRegenerator.validate(cmoInfoRecords);
+        return preparedRegenerator.getSampleRecordsErrors();
+    }
+
+    @Benchmark
+    public void conversion() throws Exception {
+        preparedRegenerator.convert(cmoInfoRecords);
+    }
+
+    @Benchmark
+    public void jsonSerialization(Blackhole blackhole) throws IOException {
+        CmoIdCodec.writeViews(correctedCmoSampleViews, new BlackholeOutputStream(blackhole), false);
+    }
+
+    @Benchmark
+    public void limsRestRoundTrip(Blackhole blackhole) {
+        limsRestClient.getCmoIdClient().getCmoIds(correctedCmoSampleViews, (igoId, cmoId) -> blackhole.consume(cmoId),
+                new RegenerationRunSummary());
+    }
+
+    @Benchmark
+    public void writeBack(WriteBackState writeBackState) throws Exception {
+        writeBackState.regenerator.updateCmoIds(writeBackState.igoId2CmoInfoRecords);
+    }
+
+    @Benchmark
+    public Map<String, CmoInfoRecord> endToEnd(EndToEndState endToEndState) throws Exception {
+        CmoSampleIdRegenerator regenerator = newRegenerator();
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(records);
+        regenerator.fillInNewCmoSampleIds(igoId2CmoInfoRecords);
+        regenerator.updateCmoIds(igoId2CmoInfoRecords);
+
+        return igoId2CmoInfoRecords;
+    }
+
+    /**
+     * Records of write back benchmark which CMO Sample Ids have to be changed again before every invocation. It's
+     * separate state so that other benchmarks don't pay for per invocation set up.
+     */
+    @State(Scope.Benchmark)
+    public static class WriteBackState {
+        private CmoSampleIdRegenerator regenerator;
+        private Map<String, CmoInfoRecord> igoId2CmoInfoRecords;
+
+        @Setup(Level.Trial)
+        public void setUp(CmoSampleIdRegenerationBenchmark benchmark) throws Exception {
+            regenerator = benchmark.newRegenerator();
+            igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(benchmark.records);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpChangedCmoIds() {
+            for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values())
+                cmoInfoRecord.setNewCmoId(cmoInfoRecord.getCurrentCmoId() + "-new");
+        }
+    }
+
+    /**
+     * Restores CMO Sample Ids written by previous end to end invocation so that every invocation finds all ids changed
+     * and writes them back.
+     */
+    @State(Scope.Benchmark)
+    public static class EndToEndState {
+        private FakeLims fakeLims;
+        private Map<DataRecord, String> record2CmoId;
+
+        @Setup(Level.Trial)
+        public void setUp(CmoSampleIdRegenerationBenchmark benchmark) throws Exception {
+            fakeLims = benchmark.fakeLims;
+            record2CmoId = new HashMap<>();
+            for (CmoInfoRecord cmoInfoRecord : benchmark.cmoInfoRecords)
+                record2CmoId.put(cmoInfoRecord.getRecord(), cmoInfoRecord.getCurrentCmoId());
+        }
+
+        @Setup(Level.Invocation)
+        public void restoreCmoIds() {
+            for (Map.Entry<DataRecord, String> recordAndCmoId : record2CmoId.entrySet())
+                fakeLims.setField(recordAndCmoId.getKey(), SampleCmoInfoFields.CORRECTED_CMO_ID, recordAndCmoId
+                        .getValue());
+        }
+    }
+
+    private static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
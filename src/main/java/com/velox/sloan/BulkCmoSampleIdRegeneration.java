@@ -0,0 +1,201 @@
+package com.velox.sloan;
+
+import com.google.common.collect.Lists;
+import com.velox.api.datarecord.DataRecord;
+import com.velox.api.datarecord.DataRecordManager;
+import com.velox.api.user.User;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Regenerates CMO Sample Ids of all Sample CMO Info Records matching query outside of workflow. Records are queried
+ * by bounded record id ranges and processed in pages of configured size ordered by record id, each page goes through
+ * the same load, validate, convert, regenerate and write back pipeline as workflow run so only records of one range and
+ * fields and views of one page are held in memory.
+ * Every record is regenerated, delta regeneration, cached and precomputed CMO Sample Ids are bypassed. Progress is
+ * saved to checkpoint file after every page. In dry run CMO Sample Id changes are only written to report.
+ */
+class BulkCmoSampleIdRegeneration {
+    private final DataRecordManager dataRecordManager;
+    private final User user;
+    private final LimsRestClientHolder limsRestClient;
+    private final RegenerationConfig config;
+    private final Consumer<String> infoLogger;
+
+    BulkCmoSampleIdRegeneration(DataRecordManager dataRecordManager, User user, LimsRestClientHolder limsRestClient,
+                                Consumer<String> infoLogger) {
+        this.dataRecordManager = dataRecordManager;
+        this.user = user;
+        this.limsRestClient = limsRestClient;
+        this.config = limsRestClient.getConfig();
+        this.infoLogger = infoLogger;
+    }
+
+    /**
+     * @return where clause selecting records of configured query or, if there is none, of configured request
+     */
+    static String getWhereClause(RegenerationConfig config) {
+        if (!StringUtils.isEmpty(config.getBulkQuery()))
+            return config.getBulkQuery();
+
+        if (!StringUtils.isEmpty(config.getBulkRequestId()))
+            return format("%s = '%s'", SampleCmoInfoFields.REQUEST_ID, config.getBulkRequestId().replace("'", "''"));
+
+        throw new RuntimeException("Neither query nor request id for bulk CMO Sample Id regeneration is configured");
+    }
+
+    /**
+     * Record id ranges are queried one by one, each starting after end of previous one, so that records of whole query
+     * are never loaded at once. Range width adapts to density of matching records and grows over empty ranges, so
+     * gaps in record ids are passed with few queries and run ends once range reaches largest possible record id.
+     */
+    Result run(String whereClause, boolean dryRun) throws Exception {
+        BulkRegenerationCheckpoint checkpoint = new BulkRegenerationCheckpoint(dryRun ? null : getCheckpointFile(),
+                whereClause);
+        long lastRecordId = checkpoint.load();
+
+        infoLogger.accept(format("Bulk CMO Sample Id regeneration%s of records matching: %s%s", dryRun ? " (dry " +
+                "run)" : "", whereClause, lastRecordId == BulkRegenerationCheckpoint.NONE ? "" : format(", resuming " +
+                "after record %d", lastRecordId)));
+
+        Result result = new Result(lastRecordId);
+
+        try (CmoIdDiffReport report = CmoIdDiffReport.create(new File(config.getReportDir()), dryRun ?
+                "cmo-sample-id-dry-run" : "cmo-sample-id-changes", config.getReportRetentionDays())) {
+            result.reportFile = report.getFile();
+
+            long rangeWidth = config.getBulkRecordIdRange();
+            while (lastRecordId < Long.MAX_VALUE) {
+                long rangeEnd = lastRecordId > Long.MAX_VALUE - rangeWidth ? Long.MAX_VALUE : lastRecordId +
+                        rangeWidth;
+                List<DataRecord> records = queryRange(whereClause, lastRecordId, rangeEnd);
+
+                for (List<DataRecord> page : Lists.partition(records, config.getBulkPageSize())) {
+                    regeneratePage(page, dryRun, report, String.valueOf(result.pages + 1));
+
+                    result.processed += page.size();
+                    result.pages++;
+                    checkpoint.save(page.get(page.size() - 1).getRecordId());
+                }
+
+                lastRecordId = rangeEnd;
+                checkpoint.save(lastRecordId);
+                rangeWidth = getNextRangeWidth(rangeWidth, records.size(), config.getBulkPageSize());
+            }
+
+            result.changed = report.getChanges();
+        }
+
+        checkpoint.clear();
+
+        return result;
+    }
+
+    /**
+     * @return records matching query with record id in range (lastRecordId, rangeEnd], ordered by record id
+     */
+    private List<DataRecord> queryRange(String whereClause, long lastRecordId, long rangeEnd) throws Exception {
+        List<DataRecord> records = new ArrayList<>(dataRecordManager.queryDataRecords(SampleCmoInfoFields
+                .DATA_TYPE_NAME, getRangeWhereClause(whereClause, lastRecordId, rangeEnd), user));
+        records.sort(Comparator.comparingLong(DataRecord::getRecordId));
+
+        return records;
+    }
+
+    static String getRangeWhereClause(String whereClause, long lastRecordId, long rangeEnd) {
+        return format("(%s) AND RecordId > %d AND RecordId <= %d", whereClause, lastRecordId, rangeEnd);
+    }
+
+    /**
+     * @return width of next range: half of current one if it held more than two pages of records, double if it held
+     * less than half of page, so that ranges hold about one page
+     */
+    static long getNextRangeWidth(long rangeWidth, int records, int pageSize) {
+        if (records > 2 * pageSize)
+            return Math.max(1, rangeWidth / 2);
+
+        if (records < pageSize / 2)
+            return rangeWidth > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : rangeWidth * 2;
+
+        return rangeWidth;
+    }
+
+    private void regeneratePage(List<DataRecord> page, boolean dryRun, CmoIdDiffReport report, String pageName)
+            throws Exception {
+        CmoSampleIdRegenerator regenerator = new CmoSampleIdRegenerator(dataRecordManager, user, limsRestClient,
+                infoLogger, true);
+        boolean success = false;
+        try {
+            Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(page);
+            regenerator.fillInNewCmoSampleIds(igoId2CmoInfoRecords);
+
+            for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values()) {
+                report.add(cmoInfoRecord);
+                if (cmoInfoRecord.isCmoSampleIdChanged())
+                    regenerator.getRunSummary().addChangedId(cmoInfoRecord.getCurrentCmoId(), cmoInfoRecord
+                            .getNewCmoId());
+            }
+
+            if (!dryRun) {
+                regenerator.updateCmoIds(igoId2CmoInfoRecords);
+                regenerator.saveRegenerationInputs(igoId2CmoInfoRecords);
+            }
+            success = true;
+        } catch (Exception e) {
+            throw new RuntimeException(format("Bulk CMO Sample Id regeneration failed on page %s: %s\n%s", pageName,
+                    e.getMessage(), regenerator.getSampleRecordsErrors()), e);
+        } finally {
+            infoLogger.accept(format("Page %s: %s", pageName, regenerator.getRunSummaryLogLine()));
+            CmoIdRegenerationMetrics.getInstance().record(regenerator.getRunSummary(), success, config
+                    .getLogPayloadMaxChars());
+        }
+    }
+
+    private File getCheckpointFile() {
+        return config.getBulkCheckpointFile() == null ? null : new File(config.getBulkCheckpointFile());
+    }
+
+    static class Result {
+        private final long resumedAfterRecordId;
+        private int processed;
+        private int pages;
+        private int changed;
+        private File reportFile;
+
+        private Result(long resumedAfterRecordId) {
+            this.resumedAfterRecordId = resumedAfterRecordId;
+        }
+
+        /**
+         * @return record id up to which previous interrupted run processed all records or {@link
+         * BulkRegenerationCheckpoint#NONE} if run started from the beginning
+         */
+        public long getResumedAfterRecordId() {
+            return resumedAfterRecordId;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getPages() {
+            return pages;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        public File getReportFile() {
+            return reportFile;
+        }
+    }
+}
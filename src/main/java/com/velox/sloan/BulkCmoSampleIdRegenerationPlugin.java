@@ -0,0 +1,58 @@
+package com.velox.sloan;
+
+import com.velox.api.plugin.PluginResult;
+import com.velox.sapioutils.server.plugin.DefaultGenericPlugin;
+
+import static java.lang.String.format;
+
+/**
+ * Action menu plugin regenerating CMO Sample Ids of whole request or of all Sample CMO Info Records matching query
+ * configured in cmo-sample-id-regeneration.properties file without attaching records to workflow. By default it runs
+ * as dry run which only reports changes. Interrupted run is resumed from checkpoint when started again.
+ */
+public class BulkCmoSampleIdRegenerationPlugin extends DefaultGenericPlugin {
+    private String propertiesFilePath = "sapio/exemplarlims/plugins/cmo-sample-id-regeneration.properties";
+
+    public BulkCmoSampleIdRegenerationPlugin() {
+        setActionMenu(true);
+        setLine1Text("Regenerate CMO Sample Ids");
+        setDescription("Regenerates CMO Sample Ids of request or query configured in " +
+                "cmo-sample-id-regeneration.properties");
+    }
+
+    @Override
+    protected PluginResult run() throws Throwable {
+        LimsRestClientHolder limsRestClient = LimsRestClientHolder.get(propertiesFilePath);
+        RegenerationConfig config = limsRestClient.getConfig();
+
+        try {
+            String whereClause = BulkCmoSampleIdRegeneration.getWhereClause(config);
+            BulkCmoSampleIdRegeneration.Result result = new BulkCmoSampleIdRegeneration(dataRecordManager, user,
+                    limsRestClient, this::logInfo).run(whereClause, config.isBulkDryRun());
+
+            String message = format("%s CMO Sample Id regeneration finished: %d records processed in %d pages%s, " +
+                            "%d CMO Sample Ids %s. All changes are in report %s",
+                    config.isBulkDryRun() ? "Dry run of bulk" : "Bulk", result.getProcessed(), result.getPages(),
+                    getResumedMessage(result), result.getChanged(), config.isBulkDryRun() ? "would change" :
+                            "changed", CmoIdDiffReport.describe(result.getReportFile(),
+                            config.getReportRetentionDays()));
+            logInfo(message);
+            clientCallback.displayInfo(message);
+        } catch (Throwable e) {
+            logError("Bulk CMO Sample Id regeneration failed", e);
+            displayError(format("Bulk CMO Sample Id regeneration failed, it will resume from last saved page when " +
+                    "started again: \n%s", e.getMessage()));
+
+            return new PluginResult(false);
+        }
+
+        return new PluginResult(true);
+    }
+
+    private static String getResumedMessage(BulkCmoSampleIdRegeneration.Result result) {
+        if (result.getResumedAfterRecordId() == BulkRegenerationCheckpoint.NONE)
+            return "";
+
+        return format(" (resumed after record %d processed by previous run)", result.getResumedAfterRecordId());
+    }
+}
@@ -0,0 +1,84 @@
+package com.velox.sloan;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import static java.lang.String.format;
+
+/**
+ * Progress of bulk CMO Sample Id regeneration saved after every page and record id range: query being processed and
+ * record id up to which all matching records were processed. Records are processed in record id order so interrupted
+ * run can resume after that record id. Checkpoint of different query is ignored.
+ */
+class BulkRegenerationCheckpoint {
+    static final long NONE = -1;
+
+    private static final String QUERY = "query";
+    private static final String LAST_RECORD_ID = "lastRecordId";
+
+    private final File file;
+    private final String query;
+
+    BulkRegenerationCheckpoint(File file, String query) {
+        this.file = file;
+        this.query = query;
+    }
+
+    /**
+     * @return id of last record processed by previous run of the same query or {@link #NONE}
+     */
+    long load() {
+        if (file == null || !file.exists())
+            return NONE;
+
+        Properties prop = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            prop.load(reader);
+        } catch (IOException e) {
+            throw new RuntimeException(format("Cannot read bulk regeneration checkpoint: %s", file), e);
+        }
+
+        if (!query.equals(prop.getProperty(QUERY)))
+            return NONE;
+
+        try {
+            return Long.parseLong(prop.getProperty(LAST_RECORD_ID));
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Replaces checkpoint atomically so that interrupted write doesn't leave corrupted checkpoint behind.
+     */
+    void save(long lastRecordId) {
+        if (file == null)
+            return;
+
+        Properties prop = new Properties();
+        prop.setProperty(QUERY, query);
+        prop.setProperty(LAST_RECORD_ID, String.valueOf(lastRecordId));
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+                prop.store(writer, "Bulk CMO Sample Id regeneration checkpoint");
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption
+                    .ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(format("Cannot save bulk regeneration checkpoint: %s", file), e);
+        }
+    }
+
+    /**
+     * Removes checkpoint once whole query is processed so that next run starts from the beginning.
+     */
+    void clear() {
+        if (file != null && file.exists() && !file.delete())
+            throw new RuntimeException(format("Cannot delete bulk regeneration checkpoint: %s", file));
+    }
+}
@@ -0,0 +1,42 @@
+package com.velox.sloan;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which all LimsRest calls of one run, retries included, have to finish.
+ */
+class CallDeadline {
+    private static final ThreadLocal<CallDeadline> current = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private CallDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    static CallDeadline in(long millis) {
+        return new CallDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * Deadline of call made by current thread, used to cap timeouts of http request.
+     */
+    static CallDeadline current() {
+        return current.get();
+    }
+
+    static void setCurrent(CallDeadline deadline) {
+        if (deadline == null)
+            current.remove();
+        else
+            current.set(deadline);
+    }
+}
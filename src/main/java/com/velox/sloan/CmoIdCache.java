@@ -0,0 +1,63 @@
+package com.velox.sloan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory store of CMO Sample Ids keyed by {@link CmoIdInputFingerprint} with least recently used eviction once max
+ * size is reached and expiration after configured time.
+ */
+class CmoIdCache {
+    private final int maxSize;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry> fingerprint2Entry;
+
+    CmoIdCache(int maxSize, long ttlMs) {
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.fingerprint2Entry = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CmoIdCache.this.maxSize;
+            }
+        };
+    }
+
+    synchronized String get(String fingerprint) {
+        Entry entry = fingerprint2Entry.get(fingerprint);
+
+        if (entry == null || isExpired(entry)) {
+            if (entry != null)
+                fingerprint2Entry.remove(fingerprint);
+            return null;
+        }
+
+        return entry.cmoId;
+    }
+
+    synchronized void putAll(Map<String, String> fingerprint2CmoId) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> fingerprintToCmoId : fingerprint2CmoId.entrySet()) {
+            if (fingerprintToCmoId.getValue() != null)
+                fingerprint2Entry.put(fingerprintToCmoId.getKey(), new Entry(fingerprintToCmoId.getValue(), now));
+        }
+    }
+
+    synchronized int size() {
+        return fingerprint2Entry.size();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.createdMillis > ttlMs;
+    }
+
+    private static class Entry {
+        private final String cmoId;
+        private final long createdMillis;
+
+        private Entry(String cmoId, long createdMillis) {
+            this.cmoId = cmoId;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
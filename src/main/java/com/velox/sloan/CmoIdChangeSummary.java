@@ -0,0 +1,65 @@
+package com.velox.sloan;
+
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Compact summary of CMO Sample Id changes shown to user for review: counts, number of changes per patient and only
+ * first configured number of individual changes. Its size doesn't grow with number of changes, all of them are
+ * written to {@link CmoIdDiffReport}.
+ */
+class CmoIdChangeSummary {
+    private final int maxLines;
+    private final int maxPatients;
+    private final Map<String, Integer> patientId2Changes = new TreeMap<>();
+    private final List<String> lines = new ArrayList<>();
+    private int records;
+    private int changes;
+
+    CmoIdChangeSummary(int maxLines, int maxPatients) {
+        this.maxLines = maxLines;
+        this.maxPatients = maxPatients;
+    }
+
+    void add(CmoInfoRecord cmoInfoRecord) {
+        records++;
+        if (!cmoInfoRecord.isCmoSampleIdChanged())
+            return;
+
+        changes++;
+        patientId2Changes.merge(Objects.toString(cmoInfoRecord.getFields().getCmoPatientId(), "unknown patient"), 1,
+                Integer::sum);
+        if (lines.size() < maxLines)
+            lines.add(format("%s -> %s", cmoInfoRecord.getCurrentCmoId(), cmoInfoRecord.getNewCmoId()));
+    }
+
+    int getChanges() {
+        return changes;
+    }
+
+    String toMessage(String reportLocation) {
+        StringBuilder message = new StringBuilder(format("CMO Sample Ids of %d of %d samples (%d patients) are " +
+                "going to be changed.\n", changes, records, patientId2Changes.size()));
+
+        message.append("\nChanges per patient:\n");
+        patientId2Changes.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(maxPatients)
+                .forEach(patientToChanges -> message.append(format("%s: %d\n", patientToChanges.getKey(),
+                        patientToChanges.getValue())));
+        if (patientId2Changes.size() > maxPatients)
+            message.append(format("... and %d more patients\n", patientId2Changes.size() - maxPatients));
+
+        message.append("\nCMO Sample Ids which are going to be changed:\n");
+        for (String line : lines)
+            message.append(line).append("\n");
+        if (changes > lines.size())
+            message.append(format("... and %d more\n", changes - lines.size()));
+
+        if (reportLocation != null)
+            message.append(format("\nAll changes are in report %s\n", reportLocation));
+
+        return message.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.velox.sloan;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.String.format;
+
+/**
+ * Streaming encoding of CMO Sample Id request and decoding of its response in any {@link CmoIdWireFormat}. Writers are
+ * configured once per format and shared, request is written directly to connection output stream and response is
+ * parsed token by token without materializing whole response map.
+ */
+class CmoIdCodec {
+    private static final Map<CmoIdWireFormat, ObjectWriter> format2ViewsWriter = createViewsWriters();
+    private static final ObjectWriter jsonViewsWriter = format2ViewsWriter.get(CmoIdWireFormat.JSON);
+
+    private CmoIdCodec() {
+    }
+
+    private static Map<CmoIdWireFormat, ObjectWriter> createViewsWriters() {
+        Map<CmoIdWireFormat, ObjectWriter> format2Writer = new EnumMap<>(CmoIdWireFormat.class);
+        for (CmoIdWireFormat format : CmoIdWireFormat.values())
+            format2Writer.put(format, format.getObjectMapper()
+                    .writerFor(new TypeReference<List<CorrectedCmoSampleView>>() {})
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+
+        return format2Writer;
+    }
+
+    static void writeViews(List<CorrectedCmoSampleView> correctedCmoSampleViews, OutputStream output, boolean gzip)
+            throws IOException {
+        writeViews(correctedCmoSampleViews, output, gzip, CmoIdWireFormat.JSON);
+    }
+
+    static void writeViews(List<CorrectedCmoSampleView> correctedCmoSampleViews, OutputStream output, boolean gzip,
+                           CmoIdWireFormat format) throws IOException {
+        ObjectWriter viewsWriter = format2ViewsWriter.get(format);
+        if (gzip) {
+            GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+            viewsWriter.writeValue(gzipOutput, correctedCmoSampleViews);
+            gzipOutput.finish();
+        } else {
+            viewsWriter.writeValue(output, correctedCmoSampleViews);
+        }
+        output.flush();
+    }
+
+    static String toJson(List<CorrectedCmoSampleView> correctedCmoSampleViews) {
+        try {
+            return jsonViewsWriter.writeValueAsString(correctedCmoSampleViews);
+        } catch (IOException e) {
+            return format("Unable to serialize Corrected Cmo Sample Views: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Parses response object of igo id to CMO Sample Id pairs passing each pair to consumer as soon as it's read.
+     */
+    static void readCmoIds(InputStream input, BiConsumer<String, String> igoIdToCmoIdConsumer) throws IOException {
+        readCmoIds(input, igoIdToCmoIdConsumer, CmoIdWireFormat.JSON);
+    }
+
+    static void readCmoIds(InputStream input, BiConsumer<String, String> igoIdToCmoIdConsumer, CmoIdWireFormat
+            format) throws IOException {
+        try (JsonParser parser = format.getObjectMapper().getFactory().createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException(format("Expected CMO Sample Ids object, but got: %s", parser
+                        .getCurrentToken()));
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String igoId = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                String cmoId = valueToken == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                igoIdToCmoIdConsumer.accept(igoId, cmoId);
+            }
+
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT)
+                throw new IOException(format("Malformed CMO Sample Ids response at: %s", parser
+                        .getCurrentLocation()));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.velox.sloan;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Tab separated report of CMO Sample Id changes streamed to file as records are processed so that its size doesn't
+ * depend on memory.
+ */
+class CmoIdDiffReport implements Closeable {
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+    private final Writer writer;
+    private int changes;
+
+    private CmoIdDiffReport(File file) throws IOException {
+        this.file = file;
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        writeLine("IgoId", "CmoPatientId", "CurrentCmoId", "NewCmoId");
+    }
+
+    /**
+     * Creates report file with unique name in given directory. Reports with the same prefix older than retention
+     * days are deleted first so that directory doesn't grow with every run.
+     */
+    static CmoIdDiffReport create(File directory, String prefix, int retentionDays) {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new RuntimeException(format("Cannot create directory for CMO Sample Id changes report: %s",
+                    directory));
+
+        deleteExpiredReports(directory, prefix, retentionDays);
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        File file = new File(directory, format("%s-%s.tsv", prefix, timestamp));
+
+        try {
+            return new CmoIdDiffReport(file);
+        } catch (IOException e) {
+            throw new RuntimeException(format("Cannot create CMO Sample Id changes report: %s", file), e);
+        }
+    }
+
+    private static void deleteExpiredReports(File directory, String prefix, int retentionDays) {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        File[] expiredReports = directory.listFiles(file -> file.isFile() && file.getName().startsWith(prefix + "-")
+                && file.getName().endsWith(".tsv") && file.lastModified() < expiredBefore);
+
+        if (expiredReports != null) {
+            for (File expiredReport : expiredReports)
+                expiredReport.delete();
+        }
+    }
+
+    /**
+     * Writes record to report if its CMO Sample Id changed.
+     */
+    void add(CmoInfoRecord cmoInfoRecord) {
+        if (!cmoInfoRecord.isCmoSampleIdChanged())
+            return;
+
+        SampleCmoInfoFields fields = cmoInfoRecord.getFields();
+        try {
+            writeLine(fields.getIgoId(), fields.getCmoPatientId(), cmoInfoRecord.getCurrentCmoId(), cmoInfoRecord
+                    .getNewCmoId());
+            changes++;
+        } catch (IOException e) {
+            throw new RuntimeException(format("Cannot write CMO Sample Id changes report: %s", file), e);
+        }
+    }
+
+    private void writeLine(String... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                writer.write(SEPARATOR);
+            writer.write(values[i] == null ? "" : values[i].replace(SEPARATOR, " "));
+        }
+        writer.write("\n");
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Users can't open files on LIMS server, so they are told which report to ask LIMS administrators for.
+     */
+    static String describe(File file, int retentionDays) {
+        return format("%s in %s on LIMS server (kept for %d days, LIMS administrators can provide it)", file
+                .getName(), file.getParent(), retentionDays);
+    }
+
+    int getChanges() {
+        return changes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.velox.sloan;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Sidecar store of {@link CmoIdInputFingerprint} and CMO Sample Id saved for every sample the last time its CMO
+ * Sample Id was regenerated. Sample which current fingerprint and CMO Sample Id match stored ones doesn't need to be
+ * regenerated. Store keeps at most configured number of samples with least recently used eviction and entries expire
+ * after configured time, evicted or expired sample is only regenerated again. If store file is configured, entries are
+ * appended to it and loaded back after LIMS restart. File is compacted on load and whenever it grows to twice the
+ * number of live entries, so it stays bounded while LIMS runs.
+ */
+class CmoIdFingerprintStore {
+    private static final String FILE_SEPARATOR = "\t";
+    private static final int MIN_LINES_TO_COMPACT = 1_000;
+
+    private final File file;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> igoId2Entry;
+    private int fileLines;
+
+    CmoIdFingerprintStore(File file, int maxSize, long ttlMillis) {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.igoId2Entry = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CmoIdFingerprintStore.this.maxSize;
+            }
+        };
+
+        if (file != null)
+            loadFile();
+    }
+
+    /**
+     * @return true if CMO Sample Id was regenerated for exactly the same inputs and wasn't changed since then
+     */
+    synchronized boolean isUnchanged(String igoId, String inputFingerprint, String currentCmoId) {
+        Entry entry = igoId2Entry.get(igoId);
+        if (entry != null && isExpired(entry)) {
+            igoId2Entry.remove(igoId);
+            return false;
+        }
+
+        return entry != null && entry.inputFingerprint.equals(inputFingerprint) && Objects.equals(entry.cmoId,
+                currentCmoId);
+    }
+
+    synchronized void putAll(Map<String, Entry> igoId2NewEntry) {
+        igoId2Entry.putAll(igoId2NewEntry);
+
+        if (file != null) {
+            writeFile(igoId2NewEntry, true);
+            fileLines += igoId2NewEntry.size();
+            if (fileLines > Math.max(MIN_LINES_TO_COMPACT, 2 * igoId2Entry.size()))
+                compactFile();
+        }
+    }
+
+    synchronized int size() {
+        return igoId2Entry.size();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.savedMillis > ttlMillis;
+    }
+
+    /**
+     * Loads not expired entries from store file, later lines override earlier ones.
+     */
+    private void loadFile() {
+        if (!file.exists())
+            return;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                fileLines++;
+                String[] values = line.split(FILE_SEPARATOR);
+                if (values.length != 4)
+                    continue;
+
+                Entry entry = new Entry(values[1], values[2], Long.parseLong(values[3]));
+                if (!isExpired(entry))
+                    igoId2Entry.put(values[0], entry);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // unreadable store only means samples are regenerated again, it is rewritten below
+        }
+
+        if (fileLines > igoId2Entry.size())
+            compactFile();
+    }
+
+    /**
+     * Rewrites file with live entries only.
+     */
+    private void compactFile() {
+        Iterator<Entry> entries = igoId2Entry.values().iterator();
+        while (entries.hasNext()) {
+            if (isExpired(entries.next()))
+                entries.remove();
+        }
+
+        writeFile(igoId2Entry, false);
+        fileLines = igoId2Entry.size();
+    }
+
+    private void writeFile(Map<String, Entry> entries, boolean append) {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append),
+                StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Entry> igoIdToEntry : entries.entrySet()) {
+                Entry entry = igoIdToEntry.getValue();
+                writer.write(igoIdToEntry.getKey() + FILE_SEPARATOR + entry.inputFingerprint + FILE_SEPARATOR +
+                        entry.cmoId + FILE_SEPARATOR + entry.savedMillis + "\n");
+            }
+        } catch (IOException e) {
+            // file is optional, in-memory store still works
+        }
+    }
+
+    static class Entry {
+        private final String inputFingerprint;
+        private final String cmoId;
+        private final long savedMillis;
+
+        Entry(String inputFingerprint, String cmoId) {
+            this(inputFingerprint, cmoId, System.currentTimeMillis());
+        }
+
+        private Entry(String inputFingerprint, String cmoId, long savedMillis) {
+            this.inputFingerprint = inputFingerprint;
+            this.cmoId = cmoId;
+            this.savedMillis = savedMillis;
+        }
+    }
+}
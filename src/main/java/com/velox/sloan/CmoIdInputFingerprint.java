@@ -0,0 +1,70 @@
+package com.velox.sloan;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stable hash of all inputs determining CMO Sample Id of a sample, i.e. of every field sent to LimsRest in Corrected
+ * Cmo Sample View: igo id, patient id, user sample id, current corrected CMO Sample Id, sample class, sample origin,
+ * specimen type, nucleic acid, sample type and request id. Two samples with the same fingerprint get the same CMO
+ * Sample Id from LimsRest.
+ */
+class CmoIdInputFingerprint {
+    private static final char FIELD_SEPARATOR = '\u001F';
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private CmoIdInputFingerprint() {
+    }
+
+    static String of(SampleCmoInfoFields fields, ParentSampleIndex.ParentSample parentSample) {
+        return of(fields, parentSample, fields.getCorrectedCmoId());
+    }
+
+    /**
+     * @return fingerprint of sample which corrected CMO Sample Id is changed to given one
+     */
+    static String of(SampleCmoInfoFields fields, ParentSampleIndex.ParentSample parentSample, String correctedCmoId) {
+        return hash(fields.getIgoId(),
+                fields.getCmoPatientId(),
+                fields.getUserSampleId(),
+                correctedCmoId,
+                fields.getCmoSampleClass(),
+                fields.getSampleOrigin(),
+                fields.getSpecimenType(),
+                parentSample.getNaToExtract(),
+                parentSample.getSampleType(),
+                fields.getRequestId());
+    }
+
+    private static String hash(String... values) {
+        StringBuilder input = new StringBuilder();
+        for (String value : values) {
+            if (value != null)
+                input.append(value);
+            input.append(FIELD_SEPARATOR);
+        }
+
+        byte[] digest = getSha256().digest(input.toString().getBytes(StandardCharsets.UTF_8));
+
+        return toHex(digest);
+    }
+
+    private static MessageDigest getSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+}
@@ -0,0 +1,75 @@
+package com.velox.sloan;
+
+import com.velox.api.datarecord.DataRecord;
+import com.velox.api.plugin.PluginResult;
+import com.velox.sapioutils.server.plugin.DefaultGenericPlugin;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * On save plugin of Sample CMO Info Records. It loads and converts saved records and queues them for background
+ * retrieval of their CMO Sample Ids by {@link CmoIdPrecomputer}, so that saving doesn't wait for LimsRest and
+ * {@link CmoSampleIdRegeneratorPlugin} finds CMO Sample Ids ready at workflow submit. Records are loaded here because
+ * plugin's data record manager and user can't be used once plugin returns. Records which CMO Sample Id determining
+ * fields didn't change are recognized by their input fingerprint and skipped by worker. Save is never failed by this
+ * plugin.
+ * <p>
+ * On save registration ({@code setOnSave}, {@code setDataTypeList}) and saved records in {@code dataRecordList} are
+ * taken from {@link DefaultGenericPlugin} of sapioutils and not verified on LIMS server yet, which is why
+ * precomputation is off by default. If saved records are not passed in, plugin does nothing.
+ */
+public class CmoIdPrecomputationPlugin extends DefaultGenericPlugin {
+    private String propertiesFilePath = "sapio/exemplarlims/plugins/cmo-sample-id-regeneration.properties";
+
+    public CmoIdPrecomputationPlugin() {
+        setOnSave(true);
+        setDataTypeList(SampleCmoInfoFields.DATA_TYPE_NAME);
+    }
+
+    @Override
+    protected PluginResult run() throws Throwable {
+        try {
+            LimsRestClientHolder limsRestClient = LimsRestClientHolder.get(propertiesFilePath);
+            CmoIdPrecomputer precomputer = limsRestClient.getCmoIdPrecomputer();
+            if (precomputer == null)
+                return new PluginResult(true);
+
+            precomputer.flushLog(this::logInfo);
+
+            if (dataRecordList == null) {
+                logInfo("No saved records passed to CMO Sample Id precomputation plugin, nothing is precomputed");
+                return new PluginResult(true);
+            }
+
+            List<DataRecord> sampleCMOInfoRecords = dataRecordList.stream()
+                    .filter(r -> SampleCmoInfoFields.DATA_TYPE_NAME.equals(r.getDataTypeName()))
+                    .collect(Collectors.toList());
+            if (sampleCMOInfoRecords.isEmpty())
+                return new PluginResult(true);
+
+            CmoSampleIdRegenerator regenerator = new CmoSampleIdRegenerator(dataRecordManager, user,
+                    limsRestClient, precomputer::log);
+            Map<String, CmoInfoRecord> igoId2CmoInfoRecords;
+            try {
+                igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(sampleCMOInfoRecords);
+            } catch (Exception e) {
+                logInfo(format("CMO Sample Ids of %d saved records won't be precomputed, they will be computed at " +
+                        "submit: %s %s", sampleCMOInfoRecords.size(), e.getMessage(), regenerator
+                        .getSampleRecordsErrors()));
+                return new PluginResult(true);
+            }
+
+            if (!precomputer.submit(regenerator, igoId2CmoInfoRecords))
+                logInfo(format("CMO Sample Id precomputation queue is full, %d saved records will be computed at " +
+                        "submit", sampleCMOInfoRecords.size()));
+        } catch (Throwable e) {
+            logError("Unable to queue CMO Sample Id precomputation of saved records", e);
+        }
+
+        return new PluginResult(true);
+    }
+}
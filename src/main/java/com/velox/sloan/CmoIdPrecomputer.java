@@ -0,0 +1,90 @@
+package com.velox.sloan;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * JVM-wide background worker computing CMO Sample Ids of Sample CMO Info Records right after they are saved, so that
+ * workflow submit finds them ready. Results are kept by {@link CmoIdInputFingerprint}, submit uses precomputed CMO
+ * Sample Id only if fingerprint of record at submit time is still the same. Saves are processed one by one on single
+ * thread, saves which don't fit into queue are dropped and their CMO Sample Ids are computed at submit.
+ * <p>
+ * Worker outlives plugin invocation which queued records, so it doesn't use LIMS or plugin logger: records are loaded
+ * by plugin and worker's log lines are kept until next plugin invocation logs them.
+ */
+class CmoIdPrecomputer {
+    private static final int MAX_PENDING_LOG_LINES = 100;
+
+    private final CmoIdCache precomputedCmoIds;
+    private final ThreadPoolExecutor worker;
+    private final Queue<String> pendingLogLines = new ConcurrentLinkedQueue<>();
+
+    CmoIdPrecomputer(RegenerationConfig config) {
+        this.precomputedCmoIds = new CmoIdCache(config.getPrecomputeMaxSize(), TimeUnit.MINUTES.toMillis(config
+                .getPrecomputeTtlMinutes()));
+        this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(config
+                .getPrecomputeQueueCapacity()), r -> {
+            Thread thread = new Thread(r, "cmoid-precomputer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues retrieval of CMO Sample Ids of saved records loaded by regenerator and returns immediately. Nothing is
+     * written to LIMS, failures are only logged because CMO Sample Ids are computed again at submit.
+     *
+     * @return false if queue is full and records were dropped
+     */
+    boolean submit(CmoSampleIdRegenerator regenerator, Map<String, CmoInfoRecord> igoId2CmoInfoRecords) {
+        try {
+            worker.execute(() -> precompute(regenerator, igoId2CmoInfoRecords));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void precompute(CmoSampleIdRegenerator regenerator, Map<String, CmoInfoRecord> igoId2CmoInfoRecords) {
+        try {
+            regenerator.precomputeCmoIds(igoId2CmoInfoRecords);
+            log(regenerator.getRunSummaryLogLine());
+        } catch (Throwable e) {
+            log(format("Precomputation of CMO Sample Ids of %d saved records failed, they will be computed at " +
+                    "submit: %s", igoId2CmoInfoRecords.size(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Keeps log line of worker until {@link #flushLog} is called, lines over limit are dropped.
+     */
+    void log(String line) {
+        if (pendingLogLines.size() < MAX_PENDING_LOG_LINES)
+            pendingLogLines.add(line);
+    }
+
+    void flushLog(Consumer<String> logger) {
+        String line;
+        while ((line = pendingLogLines.poll()) != null)
+            logger.accept(line);
+    }
+
+    /**
+     * @return precomputed CMO Sample Ids by input fingerprint
+     */
+    CmoIdCache getPrecomputedCmoIds() {
+        return precomputedCmoIds;
+    }
+
+    void close() {
+        worker.shutdownNow();
+    }
+}
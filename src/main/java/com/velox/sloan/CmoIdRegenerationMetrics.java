@@ -0,0 +1,215 @@
+package com.velox.sloan;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * JVM-wide metrics of CMO Sample Id regeneration runs registered in platform MBean server. Every run records its
+ * {@link RegenerationRunSummary} once it's finished.
+ */
+class CmoIdRegenerationMetrics implements CmoIdRegenerationMetricsMBean {
+    static final String OBJECT_NAME = "com.velox.sloan:type=CmoIdRegenerationMetrics";
+
+    private static final CmoIdRegenerationMetrics INSTANCE = register(new CmoIdRegenerationMetrics());
+
+    private final Map<String, Long> phase2TotalMillis = new TreeMap<>();
+    private long runs;
+    private long failedRuns;
+    private long recordsProcessed;
+    private long validationErrors;
+    private long limsCalls;
+    private long limsRestRequests;
+    private long limsRestBytesSent;
+    private long limsRestBytesReceived;
+    private long cmoIdsChanged;
+    private long fingerprintHits;
+    private long fingerprintMisses;
+    private long precomputedHits;
+    private long recordsSentToLimsRest;
+    private long lastProcessingMillis;
+    private long totalProcessingMillis;
+    private long maxProcessingMillis;
+    private long totalReviewMillis;
+    private String lastRunSummary = "";
+    private Exception registrationError;
+
+    static CmoIdRegenerationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Plugin classes can be reloaded in the same JVM so registration of previously loaded class is replaced.
+     */
+    private static CmoIdRegenerationMetrics register(CmoIdRegenerationMetrics metrics) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(objectName))
+                mBeanServer.unregisterMBean(objectName);
+            mBeanServer.registerMBean(metrics, objectName);
+        } catch (Exception e) {
+            metrics.registrationError = e;
+        }
+
+        return metrics;
+    }
+
+    /**
+     * @return error which prevented publishing metrics via JMX or null if they're published
+     */
+    Exception getRegistrationError() {
+        return registrationError;
+    }
+
+    synchronized void record(RegenerationRunSummary runSummary, boolean success, int maxSummaryChars) {
+        runs++;
+        if (!success)
+            failedRuns++;
+
+        recordsProcessed += runSummary.getCount(RegenerationRunSummary.RECORDS);
+        validationErrors += runSummary.getCount(RegenerationRunSummary.VALIDATION_ERRORS);
+        limsCalls += runSummary.getCount(RegenerationRunSummary.LIMS_CALLS);
+        limsRestRequests += runSummary.getCount(RegenerationRunSummary.LIMS_REST_REQUESTS);
+        limsRestBytesSent += runSummary.getCount(RegenerationRunSummary.LIMS_REST_BYTES_SENT);
+        limsRestBytesReceived += runSummary.getCount(RegenerationRunSummary.LIMS_REST_BYTES_RECEIVED);
+        cmoIdsChanged += runSummary.getCount(RegenerationRunSummary.UPDATED);
+        fingerprintHits += runSummary.getCount(RegenerationRunSummary.UNCHANGED);
+        fingerprintMisses += runSummary.getCount(RegenerationRunSummary.CHANGED_INPUTS);
+        precomputedHits += runSummary.getCount(RegenerationRunSummary.PRECOMPUTED_HITS);
+        recordsSentToLimsRest += runSummary.getCount(RegenerationRunSummary.SENT_TO_LIMS_REST);
+
+        lastProcessingMillis = runSummary.getProcessingMillis();
+        totalProcessingMillis += lastProcessingMillis;
+        maxProcessingMillis = Math.max(maxProcessingMillis, lastProcessingMillis);
+
+        for (Map.Entry<String, Long> phase : runSummary.getPhaseMillis().entrySet()) {
+            if (RegenerationRunSummary.REVIEW_PHASE.equals(phase.getKey()))
+                totalReviewMillis += phase.getValue();
+            else
+                phase2TotalMillis.merge(phase.getKey(), phase.getValue(), Long::sum);
+        }
+
+        lastRunSummary = runSummary.toLogLine(maxSummaryChars);
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized long getFailedRuns() {
+        return failedRuns;
+    }
+
+    @Override
+    public synchronized long getRecordsProcessed() {
+        return recordsProcessed;
+    }
+
+    @Override
+    public synchronized long getValidationErrors() {
+        return validationErrors;
+    }
+
+    @Override
+    public synchronized long getLimsCalls() {
+        return limsCalls;
+    }
+
+    @Override
+    public synchronized long getLimsRestRequests() {
+        return limsRestRequests;
+    }
+
+    @Override
+    public synchronized long getLimsRestBytesSent() {
+        return limsRestBytesSent;
+    }
+
+    @Override
+    public synchronized long getLimsRestBytesReceived() {
+        return limsRestBytesReceived;
+    }
+
+    @Override
+    public synchronized long getCmoIdsChanged() {
+        return cmoIdsChanged;
+    }
+
+    @Override
+    public synchronized long getFingerprintHits() {
+        return fingerprintHits;
+    }
+
+    @Override
+    public synchronized long getFingerprintMisses() {
+        return fingerprintMisses;
+    }
+
+    @Override
+    public synchronized long getPrecomputedHits() {
+        return precomputedHits;
+    }
+
+    @Override
+    public synchronized long getRecordsSentToLimsRest() {
+        return recordsSentToLimsRest;
+    }
+
+    @Override
+    public synchronized long getLastProcessingMillis() {
+        return lastProcessingMillis;
+    }
+
+    @Override
+    public synchronized long getTotalProcessingMillis() {
+        return totalProcessingMillis;
+    }
+
+    @Override
+    public synchronized long getMaxProcessingMillis() {
+        return maxProcessingMillis;
+    }
+
+    @Override
+    public synchronized long getTotalReviewMillis() {
+        return totalReviewMillis;
+    }
+
+    @Override
+    public synchronized String getPhaseTotalMillis() {
+        return phase2TotalMillis.toString();
+    }
+
+    @Override
+    public synchronized String getLastRunSummary() {
+        return lastRunSummary;
+    }
+
+    @Override
+    public synchronized void reset() {
+        phase2TotalMillis.clear();
+        runs = 0;
+        failedRuns = 0;
+        recordsProcessed = 0;
+        validationErrors = 0;
+        limsCalls = 0;
+        limsRestRequests = 0;
+        limsRestBytesSent = 0;
+        limsRestBytesReceived = 0;
+        cmoIdsChanged = 0;
+        fingerprintHits = 0;
+        fingerprintMisses = 0;
+        precomputedHits = 0;
+        recordsSentToLimsRest = 0;
+        lastProcessingMillis = 0;
+        totalProcessingMillis = 0;
+        maxProcessingMillis = 0;
+        totalReviewMillis = 0;
+        lastRunSummary = "";
+    }
+}
@@ -0,0 +1,54 @@
+package com.velox.sloan;
+
+/**
+ * JMX view of CMO Sample Id regeneration metrics accumulated in LIMS JVM since plugin was loaded. Processing times
+ * don't include time spent waiting for user to accept changes.
+ */
+public interface CmoIdRegenerationMetricsMBean {
+    long getRuns();
+
+    long getFailedRuns();
+
+    long getRecordsProcessed();
+
+    long getValidationErrors();
+
+    long getLimsCalls();
+
+    long getLimsRestRequests();
+
+    long getLimsRestBytesSent();
+
+    long getLimsRestBytesReceived();
+
+    long getCmoIdsChanged();
+
+    /**
+     * @return records which inputs didn't change since last regeneration, their CMO Sample Id was kept without
+     * LimsRest call
+     */
+    long getFingerprintHits();
+
+    /**
+     * @return records which inputs changed since last regeneration or weren't regenerated before
+     */
+    long getFingerprintMisses();
+
+    long getPrecomputedHits();
+
+    long getRecordsSentToLimsRest();
+
+    long getLastProcessingMillis();
+
+    long getTotalProcessingMillis();
+
+    long getMaxProcessingMillis();
+
+    long getTotalReviewMillis();
+
+    String getPhaseTotalMillis();
+
+    String getLastRunSummary();
+
+    void reset();
+}
@@ -0,0 +1,281 @@
+package com.velox.sloan;
+
+import org.apache.commons.lang3.StringUtils;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import static java.lang.String.format;
+
+/**
+ * JVM-wide single-flight registry of CMO Sample Id lookups keyed by igo id and {@link CmoIdInputFingerprint}. Runs
+ * needing lookup which is already in flight wait for its result instead of sending it again. Lookups registered by
+ * all runs within configured window are merged into one bulk LimsRest call and every run receives only its own
+ * results. Samples of one patient needed by one run are always placed in the same batch, so LimsRest gives out their
+ * counters in one request. Batch is sent on behalf of run which opened it, so LimsRest requests and bytes are counted
+ * in its summary. If merged call fails, lookups of every run are sent again separately and in parallel so that one
+ * run's failure doesn't fail the others. Run which is the only one in flight doesn't wait for window and sends its
+ * lookups right away.
+ */
+class CmoIdRequestCoalescer {
+    private static final String KEY_SEPARATOR = "\t";
+    private static final long WAIT_MARGIN_MS = 1_000;
+
+    private final LimsRestCmoIdClient cmoIdClient;
+    private final long windowMillis;
+    private final long maxWaitMillis;
+    private final Map<String, CompletableFuture<String>> key2Lookup = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lims-rest-cmoid-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService dispatcher = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "lims-rest-cmoid-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Batch openBatch;
+    private int activeRuns;
+
+    CmoIdRequestCoalescer(LimsRestCmoIdClient cmoIdClient, RegenerationConfig config) {
+        this.cmoIdClient = cmoIdClient;
+        this.windowMillis = config.getCoalescingWindowMs();
+        // window, merged call and retry of run's own lookups if merged call fails
+        this.maxWaitMillis = windowMillis + 2L * config.getCmoIdDeadlineMs() + WAIT_MARGIN_MS;
+    }
+
+    /**
+     * Retrieves CMO Sample Ids of records which Corrected Cmo Sample Views and input fingerprints are already
+     * prepared. Igo id to CMO Sample Id pair of every record is passed to consumer, CMO Sample Id is null if LimsRest
+     * didn't return any.
+     */
+    void getCmoIds(List<CmoInfoRecord> cmoInfoRecords, BiConsumer<String, String> igoIdToCmoIdConsumer,
+                   RegenerationRunSummary runSummary) {
+        Map<String, CompletableFuture<String>> igoId2Lookup = new LinkedHashMap<>();
+        Batch ownBatch = null;
+        int joined = 0;
+
+        synchronized (this) {
+            boolean onlyActiveRun = activeRuns++ == 0;
+            for (List<CmoInfoRecord> patientRecords : groupByPatient(cmoInfoRecords)) {
+                Map<String, CmoInfoRecord> key2NewRecord = new LinkedHashMap<>();
+                for (CmoInfoRecord cmoInfoRecord : patientRecords) {
+                    String igoId = cmoInfoRecord.getFields().getIgoId();
+                    String key = igoId + KEY_SEPARATOR + cmoInfoRecord.getInputFingerprint();
+
+                    CompletableFuture<String> lookup = key2Lookup.get(key);
+                    if (lookup != null) {
+                        joined++;
+                        igoId2Lookup.put(igoId, lookup);
+                    } else {
+                        key2NewRecord.put(key, cmoInfoRecord);
+                    }
+                }
+
+                if (key2NewRecord.isEmpty())
+                    continue;
+
+                Batch batch;
+                // the same sample with different inputs can't be sent in one bulk request, whole patient goes to
+                // run's own batch then
+                if (onlyActiveRun || openBatch != null && openBatch.containsAny(key2NewRecord.values())) {
+                    if (ownBatch == null)
+                        ownBatch = new Batch(runSummary);
+                    batch = ownBatch;
+                } else {
+                    batch = getOpenBatch(runSummary);
+                }
+
+                for (Map.Entry<String, CmoInfoRecord> keyToRecord : key2NewRecord.entrySet()) {
+                    CmoInfoRecord cmoInfoRecord = keyToRecord.getValue();
+                    CompletableFuture<String> lookup = new CompletableFuture<>();
+                    key2Lookup.put(keyToRecord.getKey(), lookup);
+                    batch.add(cmoInfoRecord.getFields().getIgoId(), keyToRecord.getKey(), cmoInfoRecord
+                            .getCorrectedCmoSampleView(), lookup, runSummary);
+                    igoId2Lookup.put(cmoInfoRecord.getFields().getIgoId(), lookup);
+                }
+            }
+        }
+
+        try {
+            runSummary.count("limsRestCoalesced", joined);
+
+            if (ownBatch != null)
+                dispatch(ownBatch);
+
+            waitForLookups(igoId2Lookup, igoIdToCmoIdConsumer);
+        } finally {
+            synchronized (this) {
+                activeRuns--;
+            }
+        }
+    }
+
+    /**
+     * @return records grouped by patient, record without patient id makes group of its own
+     */
+    private static Collection<List<CmoInfoRecord>> groupByPatient(List<CmoInfoRecord> cmoInfoRecords) {
+        Map<String, List<CmoInfoRecord>> patientId2Records = new LinkedHashMap<>();
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+            String patientId = cmoInfoRecord.getFields().getCmoPatientId();
+            String groupKey = StringUtils.isEmpty(patientId) ? KEY_SEPARATOR + cmoInfoRecord.getFields().getIgoId() :
+                    patientId;
+            patientId2Records.computeIfAbsent(groupKey, key -> new ArrayList<>()).add(cmoInfoRecord);
+        }
+
+        return patientId2Records.values();
+    }
+
+    private Batch getOpenBatch(RegenerationRunSummary runSummary) {
+        if (openBatch == null) {
+            Batch batch = new Batch(runSummary);
+            openBatch = batch;
+            scheduler.schedule(() -> dispatcher.execute(() -> dispatch(batch)), windowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return openBatch;
+    }
+
+    private void dispatch(Batch batch) {
+        synchronized (this) {
+            if (openBatch == batch)
+                openBatch = null;
+        }
+
+        try {
+            getCmoIds(batch, batch.igoId2Lookup.keySet(), batch.runSummary);
+        } catch (Throwable e) {
+            if (batch.runSummary2IgoIds.size() > 1)
+                getCmoIdsPerRun(batch);
+            else
+                fail(batch, batch.igoId2Lookup.keySet(), e);
+        } finally {
+            synchronized (this) {
+                for (Map.Entry<String, String> igoIdToKey : batch.igoId2Key.entrySet())
+                    key2Lookup.remove(igoIdToKey.getValue(), batch.igoId2Lookup.get(igoIdToKey.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Sends lookups of every run in failed batch separately on behalf of that run, lookups already completed by
+     * successful chunks are not sent again. Runs are retried in parallel, each within its own time budget, and batch
+     * is done once all of them are.
+     */
+    private void getCmoIdsPerRun(Batch batch) {
+        List<Future<?>> retries = new ArrayList<>();
+        for (Map.Entry<RegenerationRunSummary, List<String>> runToIgoIds : batch.runSummary2IgoIds.entrySet()) {
+            Set<String> igoIds = new LinkedHashSet<>();
+            for (String igoId : runToIgoIds.getValue()) {
+                if (!batch.igoId2Lookup.get(igoId).isDone())
+                    igoIds.add(igoId);
+            }
+
+            if (igoIds.isEmpty())
+                continue;
+
+            try {
+                retries.add(dispatcher.submit(() -> {
+                    try {
+                        getCmoIds(batch, igoIds, runToIgoIds.getKey());
+                    } catch (Throwable e) {
+                        fail(batch, igoIds, e);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                fail(batch, igoIds, e);
+            }
+        }
+
+        for (Future<?> retry : retries) {
+            try {
+                retry.get();
+            } catch (ExecutionException e) {
+                // lookups of failed retry are already completed exceptionally
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void getCmoIds(Batch batch, Set<String> igoIds, RegenerationRunSummary runSummary) {
+        List<CorrectedCmoSampleView> views = new ArrayList<>();
+        for (String igoId : igoIds)
+            views.add(batch.igoId2View.get(igoId));
+
+        cmoIdClient.getCmoIds(views, (igoId, cmoId) -> {
+            CompletableFuture<String> lookup = batch.igoId2Lookup.get(igoId);
+            if (lookup != null && igoIds.contains(igoId))
+                lookup.complete(cmoId);
+        }, runSummary);
+
+        for (String igoId : igoIds)
+            batch.igoId2Lookup.get(igoId).complete(null);
+    }
+
+    private static void fail(Batch batch, Collection<String> igoIds, Throwable e) {
+        for (String igoId : igoIds)
+            batch.igoId2Lookup.get(igoId).completeExceptionally(e);
+    }
+
+    private void waitForLookups(Map<String, CompletableFuture<String>> igoId2Lookup, BiConsumer<String, String>
+            igoIdToCmoIdConsumer) {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+
+        for (Map.Entry<String, CompletableFuture<String>> igoIdToLookup : igoId2Lookup.entrySet()) {
+            try {
+                String cmoId = igoIdToLookup.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                igoIdToCmoIdConsumer.accept(igoIdToLookup.getKey(), cmoId);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+            } catch (TimeoutException e) {
+                throw new RuntimeException(format("CMO Sample Id of sample %s wasn't retrieved within %d ms",
+                        igoIdToLookup.getKey(), maxWaitMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for CMO Sample Ids", e);
+            }
+        }
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    private static class Batch {
+        private final RegenerationRunSummary runSummary;
+        private final Map<String, CorrectedCmoSampleView> igoId2View = new LinkedHashMap<>();
+        private final Map<String, String> igoId2Key = new HashMap<>();
+        private final Map<String, CompletableFuture<String>> igoId2Lookup = new LinkedHashMap<>();
+        private final Map<RegenerationRunSummary, List<String>> runSummary2IgoIds = new LinkedHashMap<>();
+
+        private Batch(RegenerationRunSummary runSummary) {
+            this.runSummary = runSummary;
+        }
+
+        private boolean containsAny(Collection<CmoInfoRecord> cmoInfoRecords) {
+            for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+                if (igoId2Key.containsKey(cmoInfoRecord.getFields().getIgoId()))
+                    return true;
+            }
+
+            return false;
+        }
+
+        private void add(String igoId, String key, CorrectedCmoSampleView view, CompletableFuture<String> lookup,
+                         RegenerationRunSummary runSummary) {
+            igoId2View.put(igoId, view);
+            igoId2Key.put(igoId, key);
+            igoId2Lookup.put(igoId, lookup);
+            runSummary2IgoIds.computeIfAbsent(runSummary, r -> new ArrayList<>()).add(igoId);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.velox.sloan;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+
+/**
+ * Wire formats of CMO Sample Id request and response. Smile is binary equivalent of JSON with back references to
+ * repeated field names and short string values, so payloads of many Corrected Cmo Sample Views are smaller and faster
+ * to parse.
+ */
+enum CmoIdWireFormat {
+    JSON(MediaType.APPLICATION_JSON, new ObjectMapper()),
+    SMILE(MediaType.valueOf("application/x-jackson-smile"), new ObjectMapper(new SmileFactory()));
+
+    private final MediaType mediaType;
+    private final ObjectMapper objectMapper;
+
+    CmoIdWireFormat(MediaType mediaType, ObjectMapper objectMapper) {
+        this.mediaType = mediaType;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @return format of response with given content type, JSON if content type is missing or unknown
+     */
+    static CmoIdWireFormat fromContentType(MediaType contentType) {
+        if (contentType != null && SMILE.mediaType.isCompatibleWith(contentType))
+            return SMILE;
+
+        return JSON;
+    }
+
+    MediaType getMediaType() {
+        return mediaType;
+    }
+
+    ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+}
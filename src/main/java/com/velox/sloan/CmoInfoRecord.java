@@ -3,20 +3,31 @@ package com.velox.sloan;
 import com.velox.api.datarecord.DataRecord;
 import org.mskcc.domain.sample.CorrectedCmoSampleView;
 
+import java.util.Objects;
+
 class CmoInfoRecord {
     private final DataRecord record;
+    private final SampleCmoInfoFields fields;
     private String currentCmoId;
     private String newCmoId;
     private CorrectedCmoSampleView correctedCmoSampleView;
+    private String inputFingerprint;
+    private ParsedSampleFields parsedFields;
 
-    CmoInfoRecord(DataRecord record) {
+    CmoInfoRecord(DataRecord record, SampleCmoInfoFields fields) {
         this.record = record;
+        this.fields = fields;
+        this.currentCmoId = fields.getCorrectedCmoId();
     }
 
     public DataRecord getRecord() {
         return record;
     }
 
+    public SampleCmoInfoFields getFields() {
+        return fields;
+    }
+
     public String getCurrentCmoId() {
         return currentCmoId;
     }
@@ -40,4 +51,24 @@ class CmoInfoRecord {
     public void setCorrectedCmoSampleView(CorrectedCmoSampleView correctedCmoSampleView) {
         this.correctedCmoSampleView = correctedCmoSampleView;
     }
+
+    public String getInputFingerprint() {
+        return inputFingerprint;
+    }
+
+    public void setInputFingerprint(String inputFingerprint) {
+        this.inputFingerprint = inputFingerprint;
+    }
+
+    public ParsedSampleFields getParsedFields() {
+        return parsedFields;
+    }
+
+    public void setParsedFields(ParsedSampleFields parsedFields) {
+        this.parsedFields = parsedFields;
+    }
+
+    public boolean isCmoSampleIdChanged() {
+        return !Objects.equals(currentCmoId, newCmoId);
+    }
 }
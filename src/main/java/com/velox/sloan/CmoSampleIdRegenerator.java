@@ -0,0 +1,621 @@
+package com.velox.sloan;
+
+import com.velox.api.datarecord.DataRecord;
+import com.velox.api.datarecord.DataRecordManager;
+import com.velox.api.user.User;
+import org.apache.commons.lang3.StringUtils;
+import org.mskcc.domain.sample.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Regenerates CMO Sample Ids of Sample CMO Info Records: loads and validates records, converts them to Corrected Cmo
+ * Sample Views, retrieves new CMO Sample Ids and writes changed ones back. It doesn't interact with user so it can
+ * be used by workflow plugin as well as outside of LIMS workflow. New instance is created for every run.
+ */
+class CmoSampleIdRegenerator {
+    private final DataRecordManager dataRecordManager;
+    private final User user;
+    private final RegenerationConfig config;
+    private final LimsRestCmoIdClient cmoIdClient;
+    private final CmoIdRequestCoalescer cmoIdCoalescer;
+    private final CmoIdCache precomputedCmoIds;
+    private final CmoIdFingerprintStore fingerprintStore;
+    private final PatientCmoIdIndex patientCmoIdIndex;
+    private final Consumer<String> infoLogger;
+    private final RegenerationErrorCollector errors;
+    private final RegenerationRunSummary runSummary = new RegenerationRunSummary();
+    private final boolean refresh;
+    private ParentSampleIndex parentSampleIndex;
+
+    CmoSampleIdRegenerator(DataRecordManager dataRecordManager, User user, LimsRestClientHolder limsRestClient,
+                           Consumer<String> infoLogger) {
+        this(dataRecordManager, user, limsRestClient, infoLogger, false);
+    }
+
+    /**
+     * @param refresh if true, every record is regenerated: delta regeneration as well as cached and precomputed CMO
+     *                Sample Ids are bypassed
+     */
+    CmoSampleIdRegenerator(DataRecordManager dataRecordManager, User user, LimsRestClientHolder limsRestClient,
+                           Consumer<String> infoLogger, boolean refresh) {
+        this.dataRecordManager = dataRecordManager;
+        this.user = user;
+        this.config = limsRestClient.getConfig();
+        this.cmoIdClient = limsRestClient.getCmoIdClient();
+        this.cmoIdCoalescer = limsRestClient.getCmoIdCoalescer();
+        this.precomputedCmoIds = limsRestClient.getCmoIdPrecomputer() == null ? null : limsRestClient
+                .getCmoIdPrecomputer().getPrecomputedCmoIds();
+        this.fingerprintStore = limsRestClient.getFingerprintStore();
+        this.patientCmoIdIndex = limsRestClient.getPatientCmoIdIndex();
+        this.infoLogger = infoLogger;
+        this.errors = new RegenerationErrorCollector(config.getMaxValidationErrors());
+        this.refresh = refresh;
+    }
+
+    String getSampleRecordsErrors() {
+        return errors.render(config.getValidationErrorsMaxChars());
+    }
+
+    /**
+     * Loads, validates and converts records. Returned records are sorted by igo id so that changes are always
+     * presented to user in the same order.
+     */
+    Map<String, CmoInfoRecord> getCmoInfoRecords(List<DataRecord> sampleCMOInfoRecords) throws Exception {
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = new TreeMap<>();
+        runSummary.count(RegenerationRunSummary.RECORDS, sampleCMOInfoRecords.size());
+
+        long phaseStart = runSummary.startPhase();
+        List<CmoInfoRecord> cmoInfoRecords = loadCmoInfoRecords(sampleCMOInfoRecords);
+        runSummary.endPhase("load", phaseStart);
+
+        phaseStart = runSummary.startPhase();
+        indexParentSamples(cmoInfoRecords);
+        runSummary.endPhase("parents", phaseStart);
+
+        phaseStart = runSummary.startPhase();
+        validate(cmoInfoRecords);
+        runSummary.endPhase("validation", phaseStart);
+        runSummary.count(RegenerationRunSummary.VALIDATION_ERRORS, errors.size());
+
+        if(!errors.isEmpty())
+            throw new RuntimeException(format("Validation failed for %d samples", errors.getSamples()));
+
+        phaseStart = runSummary.startPhase();
+        convert(cmoInfoRecords);
+        runSummary.endPhase("conversion", phaseStart);
+
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords)
+            igoId2CmoInfoRecords.put(cmoInfoRecord.getFields().getIgoId(), cmoInfoRecord);
+
+        return igoId2CmoInfoRecords;
+    }
+
+    void indexParentSamples(List<CmoInfoRecord> cmoInfoRecords) throws Exception {
+        parentSampleIndex = ParentSampleIndex.build(dataRecordManager, cmoInfoRecords, user);
+        runSummary.count(RegenerationRunSummary.LIMS_CALLS, parentSampleIndex.getRemoteCalls());
+    }
+
+    void convert(List<CmoInfoRecord> cmoInfoRecords) throws Exception {
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords)
+            prepareRegeneration(cmoInfoRecord);
+    }
+
+    private void prepareRegeneration(CmoInfoRecord cmoInfoRecord) {
+        ParentSampleIndex.ParentSample parentSample = retrieveParentSample(cmoInfoRecord);
+        cmoInfoRecord.setInputFingerprint(CmoIdInputFingerprint.of(cmoInfoRecord.getFields(), parentSample));
+
+        if (isUnchangedSinceLastRegeneration(cmoInfoRecord))
+            cmoInfoRecord.setNewCmoId(cmoInfoRecord.getCurrentCmoId());
+        else
+            cmoInfoRecord.setCorrectedCmoSampleView(convert(cmoInfoRecord));
+    }
+
+    /**
+     * Loads fields of all Sample CMO Info Records with one bulk call instead of reading every field of every record
+     * separately.
+     */
+    List<CmoInfoRecord> loadCmoInfoRecords(List<DataRecord> sampleCMOInfoRecords) throws Exception {
+        List<Map<String, Object>> recordsFields = dataRecordManager.getFieldsForRecords(sampleCMOInfoRecords, user);
+        runSummary.count(RegenerationRunSummary.LIMS_CALLS, 1);
+
+        List<CmoInfoRecord> cmoInfoRecords = new ArrayList<>();
+        for (int i = 0; i < sampleCMOInfoRecords.size(); i++) {
+            SampleCmoInfoFields fields = SampleCmoInfoFields.from(recordsFields.get(i));
+            cmoInfoRecords.add(new CmoInfoRecord(sampleCMOInfoRecords.get(i), fields));
+        }
+
+        return cmoInfoRecords;
+    }
+
+    /**
+     * Record which CMO Sample Id determining fields didn't change since its CMO Sample Id was last regenerated keeps
+     * current CMO Sample Id and is neither converted nor sent to LimsRest. Fingerprint store is the only client side
+     * cache of saved CMO Sample Ids: saved id could only be reused for exactly the same inputs, including current CMO
+     * Sample Id, which is what this check already covers.
+     */
+    private boolean isUnchangedSinceLastRegeneration(CmoInfoRecord cmoInfoRecord) {
+        if (refresh || config.isCmoIdCacheBypass() || !config.isDeltaRegeneration() || fingerprintStore == null)
+            return false;
+
+        return !StringUtils.isEmpty(cmoInfoRecord.getCurrentCmoId()) && fingerprintStore.isUnchanged(cmoInfoRecord
+                .getFields().getIgoId(), cmoInfoRecord.getInputFingerprint(), cmoInfoRecord.getCurrentCmoId());
+    }
+
+    void fillInNewCmoSampleIds(Map<String, CmoInfoRecord> igoId2CmoInfoRecords) {
+        List<CmoInfoRecord> changedRecords = igoId2CmoInfoRecords.values().stream()
+                .filter(r -> r.getCorrectedCmoSampleView() != null)
+                .collect(Collectors.toList());
+
+        runSummary.count(RegenerationRunSummary.UNCHANGED, igoId2CmoInfoRecords.size() - changedRecords.size());
+        runSummary.count(RegenerationRunSummary.CHANGED_INPUTS, changedRecords.size());
+
+        long phaseStart = runSummary.startPhase();
+        List<CmoInfoRecord> notCachedRecords = fillInPrecomputedCmoSampleIds(changedRecords);
+        runSummary.endPhase("cache", phaseStart);
+
+        if (notCachedRecords.isEmpty())
+            return;
+
+        Map<String, String> igoId2LocalCmoId = computeLocalCmoSampleIds(notCachedRecords);
+        List<CmoInfoRecord> limsRestRecords = notCachedRecords;
+        if (config.getLocalCmoIdMode() == LocalCmoIdMode.AUTHORITATIVE) {
+            limsRestRecords = fillInLocalCmoSampleIds(notCachedRecords, igoId2LocalCmoId);
+            if (limsRestRecords.isEmpty())
+                return;
+        }
+
+        retrieveCmoSampleIds(igoId2CmoInfoRecords, limsRestRecords);
+
+        if (config.getLocalCmoIdMode() == LocalCmoIdMode.SHADOW)
+            compareWithLocalCmoSampleIds(limsRestRecords, igoId2LocalCmoId);
+    }
+
+    private void retrieveCmoSampleIds(Map<String, CmoInfoRecord> igoId2CmoInfoRecords, List<CmoInfoRecord>
+            limsRestRecords) {
+        List<CorrectedCmoSampleView> correctedCmoSampleViews = limsRestRecords.stream()
+                .map( r -> r.getCorrectedCmoSampleView())
+                .collect(Collectors.toList());
+
+        runSummary.count(RegenerationRunSummary.SENT_TO_LIMS_REST, correctedCmoSampleViews.size());
+        logDebugPayload(() -> String.format("Invoking %s with entity: %s", config.getCmoIdUrl(),
+                CmoIdCodec.toJson(correctedCmoSampleViews)));
+
+        long phaseStart = runSummary.startPhase();
+        AtomicInteger received = new AtomicInteger();
+        BiConsumer<String, String> igoIdToCmoIdConsumer = (igoId, cmoSampleId) -> {
+            if (!igoId2CmoInfoRecords.containsKey(igoId))
+                throw new RuntimeException(String.format("Sample %s was not added to Ammend workflow", igoId));
+
+            igoId2CmoInfoRecords.get(igoId).setNewCmoId(cmoSampleId);
+            if (cmoSampleId != null)
+                received.incrementAndGet();
+        };
+
+        if (cmoIdCoalescer != null)
+            cmoIdCoalescer.getCmoIds(limsRestRecords, igoIdToCmoIdConsumer, runSummary);
+        else
+            cmoIdClient.getCmoIds(correctedCmoSampleViews, igoIdToCmoIdConsumer, runSummary);
+        runSummary.endPhase("limsRest", phaseStart);
+        runSummary.count("receivedFromLimsRest", received.get());
+
+        logDebugPayload(() -> String.format("New corrected cmo sample ids received: %s", limsRestRecords.stream()
+                .map(r -> r.getFields().getIgoId() + "=" + r.getNewCmoId())
+                .collect(Collectors.joining(", "))));
+    }
+
+    /**
+     * Computes CMO Sample Ids of records with {@link LocalCmoIdEngine} in igo id order so that counters are given out
+     * deterministically.
+     *
+     * @return locally computed CMO Sample Ids by igo id, samples engine couldn't resolve are missing
+     */
+    private Map<String, String> computeLocalCmoSampleIds(List<CmoInfoRecord> cmoInfoRecords) {
+        Map<String, String> igoId2LocalCmoId = new HashMap<>();
+        if (patientCmoIdIndex == null)
+            return igoId2LocalCmoId;
+
+        long phaseStart = runSummary.startPhase();
+        try {
+            Set<String> patientIds = cmoInfoRecords.stream()
+                    .map(r -> r.getFields().getCmoPatientId())
+                    .filter(patientId -> !StringUtils.isEmpty(patientId))
+                    .collect(Collectors.toSet());
+            runSummary.count(RegenerationRunSummary.LIMS_CALLS, patientCmoIdIndex.load(dataRecordManager,
+                    patientIds, user));
+
+            LocalCmoIdEngine engine = new LocalCmoIdEngine(patientCmoIdIndex);
+            for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+                SampleCmoInfoFields fields = cmoInfoRecord.getFields();
+                String localCmoId = engine.resolve(fields, retrieveParentSample(cmoInfoRecord));
+                if (localCmoId != null)
+                    igoId2LocalCmoId.put(fields.getIgoId(), localCmoId);
+            }
+        } catch (Exception e) {
+            infoLogger.accept(String.format("Local CMO Sample Id computation failed, using LimsRest only: %s", e
+                    .getMessage()));
+            igoId2LocalCmoId.clear();
+        }
+        runSummary.endPhase("local", phaseStart);
+        runSummary.count("localResolved", igoId2LocalCmoId.size());
+
+        return igoId2LocalCmoId;
+    }
+
+    /**
+     * Locally computed CMO Sample Ids are provisional, they are cached only once they are saved. Patient is resolved
+     * either locally or by LimsRest as a whole: if engine couldn't resolve any sample of patient, reservations of its
+     * other samples are released and all its samples are sent to LimsRest, which gives out counters of patient without
+     * knowing about local reservations.
+     *
+     * @return records which have to be sent to LimsRest
+     */
+    private List<CmoInfoRecord> fillInLocalCmoSampleIds(List<CmoInfoRecord> cmoInfoRecords, Map<String, String>
+            igoId2LocalCmoId) {
+        List<CmoInfoRecord> unresolvedRecords = new ArrayList<>();
+        Map<String, List<CmoInfoRecord>> patientId2Records = new LinkedHashMap<>();
+
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+            String patientId = cmoInfoRecord.getFields().getCmoPatientId();
+            if (!StringUtils.isEmpty(patientId))
+                patientId2Records.computeIfAbsent(patientId, id -> new ArrayList<>()).add(cmoInfoRecord);
+            else if (!fillInLocalCmoSampleId(cmoInfoRecord, igoId2LocalCmoId))
+                unresolvedRecords.add(cmoInfoRecord);
+        }
+
+        int unresolvedPatients = 0;
+        for (Map.Entry<String, List<CmoInfoRecord>> patientIdToRecords : patientId2Records.entrySet()) {
+            List<CmoInfoRecord> patientRecords = patientIdToRecords.getValue();
+            boolean resolved = patientRecords.stream()
+                    .allMatch(r -> igoId2LocalCmoId.containsKey(r.getFields().getIgoId()));
+
+            if (resolved) {
+                for (CmoInfoRecord cmoInfoRecord : patientRecords)
+                    fillInLocalCmoSampleId(cmoInfoRecord, igoId2LocalCmoId);
+            } else {
+                patientCmoIdIndex.release(patientIdToRecords.getKey(), patientRecords.stream()
+                        .map(r -> r.getFields().getIgoId())
+                        .collect(Collectors.toList()));
+                unresolvedRecords.addAll(patientRecords);
+                unresolvedPatients++;
+            }
+        }
+        runSummary.count("localUnresolvedPatients", unresolvedPatients);
+
+        return unresolvedRecords;
+    }
+
+    private static boolean fillInLocalCmoSampleId(CmoInfoRecord cmoInfoRecord, Map<String, String> igoId2LocalCmoId) {
+        String localCmoId = igoId2LocalCmoId.get(cmoInfoRecord.getFields().getIgoId());
+        if (localCmoId != null)
+            cmoInfoRecord.setNewCmoId(localCmoId);
+
+        return localCmoId != null;
+    }
+
+    /**
+     * Shadow mode: CMO Sample Ids from LimsRest are used, locally computed ones are only compared with them.
+     */
+    private void compareWithLocalCmoSampleIds(List<CmoInfoRecord> cmoInfoRecords, Map<String, String>
+            igoId2LocalCmoId) {
+        List<String> mismatches = new ArrayList<>();
+        int matches = 0;
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+            String igoId = cmoInfoRecord.getFields().getIgoId();
+            String localCmoId = igoId2LocalCmoId.get(igoId);
+            if (localCmoId == null)
+                continue;
+
+            if (localCmoId.equals(cmoInfoRecord.getNewCmoId()))
+                matches++;
+            else
+                mismatches.add(String.format("%s: local=%s, limsRest=%s", igoId, localCmoId, cmoInfoRecord
+                        .getNewCmoId()));
+        }
+
+        runSummary.count("localMatches", matches);
+        runSummary.count("localMismatches", mismatches.size());
+
+        if (!mismatches.isEmpty())
+            infoLogger.accept(RegenerationRunSummary.truncate(String.format("Local CMO Sample Id engine mismatches " +
+                    "(%d): %s", mismatches.size(), String.join("; ", mismatches)), config.getLogPayloadMaxChars()));
+    }
+
+    /**
+     * Fills in precomputed CMO Sample Ids, they are used only if record inputs are still the same as when they were
+     * computed. Samples of patient saved separately were precomputed without knowing about each other, so their
+     * counters may clash: precomputed CMO Sample Ids of patient are used only if every changed sample of patient has
+     * one and none of them is used by another sample of patient, saved in LIMS or in this run. Otherwise all changed
+     * samples of patient are retrieved from LimsRest together.
+     *
+     * @return records which CMO Sample Id has to be retrieved from LimsRest
+     */
+    private List<CmoInfoRecord> fillInPrecomputedCmoSampleIds(List<CmoInfoRecord> cmoInfoRecords) {
+        if (precomputedCmoIds == null || refresh || config.isCmoIdCacheBypass())
+            return cmoInfoRecords;
+
+        Map<String, List<CmoInfoRecord>> patientId2Records = new LinkedHashMap<>();
+        List<CmoInfoRecord> notPrecomputedRecords = new ArrayList<>();
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+            String patientId = cmoInfoRecord.getFields().getCmoPatientId();
+            if (!StringUtils.isEmpty(patientId))
+                patientId2Records.computeIfAbsent(patientId, id -> new ArrayList<>()).add(cmoInfoRecord);
+            else if (!fillInPrecomputedCmoSampleId(cmoInfoRecord))
+                notPrecomputedRecords.add(cmoInfoRecord);
+        }
+
+        Set<String> precomputedPatientIds = new TreeSet<>();
+        for (Map.Entry<String, List<CmoInfoRecord>> patientIdToRecords : patientId2Records.entrySet()) {
+            if (patientIdToRecords.getValue().stream().allMatch(r -> precomputedCmoIds.get(r.getInputFingerprint())
+                    != null))
+                precomputedPatientIds.add(patientIdToRecords.getKey());
+        }
+
+        Map<String, Map<String, String>> patientId2SavedCmoIds = new HashMap<>();
+        try {
+            runSummary.count(RegenerationRunSummary.LIMS_CALLS, PatientCmoIdIndex.querySavedCmoIds(dataRecordManager,
+                    precomputedPatientIds, user, patientId2SavedCmoIds));
+        } catch (Exception e) {
+            infoLogger.accept(format("Saved CMO Sample Ids of patients couldn't be loaded, precomputed CMO Sample " +
+                    "Ids won't be used: %s", e.getMessage()));
+            precomputedPatientIds.clear();
+        }
+
+        int rejectedPatients = 0;
+        for (Map.Entry<String, List<CmoInfoRecord>> patientIdToRecords : patientId2Records.entrySet()) {
+            List<CmoInfoRecord> patientRecords = patientIdToRecords.getValue();
+            boolean usable = precomputedPatientIds.contains(patientIdToRecords.getKey()) && isPrecomputedUnique
+                    (patientRecords, patientId2SavedCmoIds.get(patientIdToRecords.getKey()));
+
+            if (usable && patientRecords.stream().allMatch(this::fillInPrecomputedCmoSampleId))
+                continue;
+
+            for (CmoInfoRecord cmoInfoRecord : patientRecords)
+                cmoInfoRecord.setNewCmoId(null);
+            notPrecomputedRecords.addAll(patientRecords);
+            if (precomputedPatientIds.contains(patientIdToRecords.getKey()))
+                rejectedPatients++;
+        }
+
+        runSummary.count(RegenerationRunSummary.PRECOMPUTED_HITS, cmoInfoRecords.size() - notPrecomputedRecords
+                .size());
+        runSummary.count("precomputedRejectedPatients", rejectedPatients);
+
+        return notPrecomputedRecords;
+    }
+
+    /**
+     * @return true if precomputed CMO Sample Ids of samples of patient differ from each other and from CMO Sample Ids
+     * saved for other samples of patient
+     */
+    private boolean isPrecomputedUnique(List<CmoInfoRecord> patientRecords, Map<String, String> igoId2SavedCmoId) {
+        Set<String> igoIds = new HashSet<>();
+        Set<String> cmoIds = new HashSet<>();
+        for (CmoInfoRecord cmoInfoRecord : patientRecords) {
+            igoIds.add(cmoInfoRecord.getFields().getIgoId());
+            if (!cmoIds.add(precomputedCmoIds.get(cmoInfoRecord.getInputFingerprint())))
+                return false;
+        }
+
+        for (Map.Entry<String, String> igoIdToSavedCmoId : igoId2SavedCmoId.entrySet()) {
+            if (!igoIds.contains(igoIdToSavedCmoId.getKey()) && cmoIds.contains(igoIdToSavedCmoId.getValue()))
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean fillInPrecomputedCmoSampleId(CmoInfoRecord cmoInfoRecord) {
+        String precomputedCmoSampleId = precomputedCmoIds.get(cmoInfoRecord.getInputFingerprint());
+        if (precomputedCmoSampleId != null)
+            cmoInfoRecord.setNewCmoId(precomputedCmoSampleId);
+
+        return precomputedCmoSampleId != null;
+    }
+
+    /**
+     * @return records which CMO Sample Id isn't precomputed yet
+     */
+    private List<CmoInfoRecord> getNotPrecomputedRecords(List<CmoInfoRecord> cmoInfoRecords) {
+        if (precomputedCmoIds == null)
+            return cmoInfoRecords;
+
+        return cmoInfoRecords.stream()
+                .filter(r -> precomputedCmoIds.get(r.getInputFingerprint()) == null)
+                .collect(Collectors.toList());
+    }
+
+    private CorrectedCmoSampleView convert(CmoInfoRecord cmoInfoRecord) {
+        return new SampleCMOInfoRecordToCmoSampleViewConverter().convert(cmoInfoRecord);
+    }
+
+    /**
+     * Retrieves CMO Sample Ids of saved records, already loaded by {@link #getCmoInfoRecords}, from LimsRest in
+     * background before workflow submit and keeps them by input fingerprint. It doesn't touch LIMS, so it can run
+     * after plugin which loaded records returned. Records which CMO Sample Id doesn't need to change or is already
+     * precomputed are skipped.
+     */
+    void precomputeCmoIds(Map<String, CmoInfoRecord> igoId2CmoInfoRecords) {
+        List<CmoInfoRecord> changedRecords = igoId2CmoInfoRecords.values().stream()
+                .filter(r -> r.getCorrectedCmoSampleView() != null)
+                .collect(Collectors.toList());
+        List<CmoInfoRecord> limsRestRecords = getNotPrecomputedRecords(changedRecords);
+        if (!limsRestRecords.isEmpty())
+            retrieveCmoSampleIds(igoId2CmoInfoRecords, limsRestRecords);
+
+        Map<String, String> fingerprint2CmoSampleId = new HashMap<>();
+        for (CmoInfoRecord cmoInfoRecord : limsRestRecords) {
+            if (cmoInfoRecord.getNewCmoId() != null)
+                fingerprint2CmoSampleId.put(cmoInfoRecord.getInputFingerprint(), cmoInfoRecord.getNewCmoId());
+        }
+
+        if (precomputedCmoIds != null)
+            precomputedCmoIds.putAll(fingerprint2CmoSampleId);
+        runSummary.count("precomputed", fingerprint2CmoSampleId.size());
+    }
+
+    /**
+     * Saves new CMO Sample Ids of records which CMO Sample Id changed with one bulk update.
+     */
+    void updateCmoIds(Map<String, CmoInfoRecord> igoId2CmoInfoRecords) throws Exception {
+        List<DataRecord> changedRecords = new ArrayList<>();
+        List<Map<String, Object>> changedFields = new ArrayList<>();
+
+        for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values()) {
+            if (cmoInfoRecord.isCmoSampleIdChanged()) {
+                changedRecords.add(cmoInfoRecord.getRecord());
+                changedFields.add(Collections.singletonMap(SampleCmoInfoFields.CORRECTED_CMO_ID, cmoInfoRecord
+                        .getNewCmoId()));
+            }
+        }
+
+        long phaseStart = runSummary.startPhase();
+        if (!changedRecords.isEmpty()) {
+            dataRecordManager.setFieldsForRecords(changedRecords, changedFields, user);
+            runSummary.count(RegenerationRunSummary.LIMS_CALLS, 1);
+        }
+
+        if (patientCmoIdIndex != null) {
+            for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values()) {
+                if (cmoInfoRecord.isCmoSampleIdChanged())
+                    patientCmoIdIndex.put(cmoInfoRecord.getFields().getCmoPatientId(), cmoInfoRecord.getFields()
+                            .getIgoId(), cmoInfoRecord.getNewCmoId());
+            }
+        }
+        runSummary.endPhase("writeBack", phaseStart);
+        runSummary.count(RegenerationRunSummary.UPDATED, changedRecords.size());
+    }
+
+    /**
+     * Remembers CMO Sample Ids saved to LIMS with their inputs so that records which don't change are skipped next
+     * time. It has to be called only after CMO Sample Ids are saved.
+     * Changed record is remembered with inputs it has after save, i.e. with its new CMO Sample Id.
+     */
+    void saveRegenerationInputs(Map<String, CmoInfoRecord> igoId2CmoInfoRecords) {
+        Map<String, CmoIdFingerprintStore.Entry> igoId2Entry = new HashMap<>();
+
+        for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values()) {
+            if (cmoInfoRecord.getInputFingerprint() == null || cmoInfoRecord.getNewCmoId() == null)
+                continue;
+
+            String savedFingerprint = cmoInfoRecord.isCmoSampleIdChanged() ? CmoIdInputFingerprint.of(cmoInfoRecord
+                    .getFields(), retrieveParentSample(cmoInfoRecord), cmoInfoRecord.getNewCmoId()) : cmoInfoRecord
+                    .getInputFingerprint();
+            igoId2Entry.put(cmoInfoRecord.getFields().getIgoId(), new CmoIdFingerprintStore.Entry(savedFingerprint,
+                    cmoInfoRecord.getNewCmoId()));
+        }
+
+        if (fingerprintStore != null)
+            fingerprintStore.putAll(igoId2Entry);
+    }
+
+    RegenerationRunSummary getRunSummary() {
+        return runSummary;
+    }
+
+    RegenerationConfig getConfig() {
+        return config;
+    }
+
+    String getRunSummaryLogLine() {
+        return runSummary.toLogLine(config.getLogPayloadMaxChars());
+    }
+
+    /**
+     * Full payloads are logged only if explicitly enabled, message is not even built otherwise.
+     */
+    private void logDebugPayload(Supplier<String> message) {
+        if (config.isLogDebugPayloads())
+            infoLogger.accept(message.get());
+    }
+
+    private void validateIgoId(DataRecord sampleCMOInfoRecord, String igoId) {
+        if (StringUtils.isEmpty(igoId))
+            throw new RuntimeException(format("Igo id is empty for record: %%s%d", sampleCMOInfoRecord
+                    .getRecordId()));
+    }
+
+    void validate(List<CmoInfoRecord> cmoInfoRecords) throws Exception {
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+            if (errors.isLimitReached())
+                runSummary.count("validationSkipped", 1);
+            else
+                validate(cmoInfoRecord);
+        }
+    }
+
+    private void validate(CmoInfoRecord cmoInfoRecord) {
+        ParsedSampleFields parsedFields = parse(cmoInfoRecord);
+        cmoInfoRecord.setParsedFields(parsedFields);
+
+        SampleValidationRules.validate(cmoInfoRecord.getFields(), parsedFields, errors);
+    }
+
+    /**
+     * Looks up enum values of record and its parent sample without throwing exceptions for invalid ones.
+     */
+    private ParsedSampleFields parse(CmoInfoRecord cmoInfoRecord) {
+        try {
+            return ParsedSampleFields.of(cmoInfoRecord.getFields(), retrieveParentSample(cmoInfoRecord), null);
+        } catch (Exception e) {
+            return ParsedSampleFields.of(cmoInfoRecord.getFields(), null, e.getMessage());
+        }
+    }
+
+    private ParentSampleIndex.ParentSample retrieveParentSample(CmoInfoRecord cmoInfoRecord) {
+        String igoId = cmoInfoRecord.getFields().getIgoId();
+        validateIgoId(cmoInfoRecord.getRecord(), igoId);
+
+        return parentSampleIndex.getParentSample(igoId);
+    }
+
+    private class SampleCMOInfoRecordToCmoSampleViewConverter {
+        public CorrectedCmoSampleView convert(CmoInfoRecord cmoInfoRecord) {
+            SampleCmoInfoFields fields = cmoInfoRecord.getFields();
+            String igoId = fields.getIgoId();
+
+            CorrectedCmoSampleView correctedCmoSampleView = new CorrectedCmoSampleView(igoId);
+
+            correctedCmoSampleView.setPatientId(fields.getCmoPatientId());
+            correctedCmoSampleView.setSampleId(fields.getUserSampleId());
+            correctedCmoSampleView.setCorrectedCmoId(fields.getCorrectedCmoId());
+
+            ParsedSampleFields parsedFields = cmoInfoRecord.getParsedFields() != null ? cmoInfoRecord
+                    .getParsedFields() : parse(cmoInfoRecord);
+
+            if (!parsedFields.getSampleClass().isEmpty())
+                correctedCmoSampleView.setSampleClass(parsedFields.getSampleClass().get());
+
+            if (!parsedFields.getSampleOrigin().isEmpty())
+                correctedCmoSampleView.setSampleOrigin(parsedFields.getSampleOrigin().get());
+
+            if (!parsedFields.getSpecimenType().isEmpty())
+                correctedCmoSampleView.setSpecimenType(parsedFields.getSpecimenType().get());
+
+            correctedCmoSampleView.setRequestId(fields.getRequestId());
+
+            if (!parsedFields.hasParentSample())
+                throw new RuntimeException(parsedFields.getParentSampleError());
+
+            if (!parsedFields.getNucleicAcid().isEmpty())
+                correctedCmoSampleView.setNucleidAcid(parsedFields.getNucleicAcid().get());
+
+            SampleType sampleType = parsedFields.getSampleType().get();
+            if (sampleType == null)
+                throw new RuntimeException(format("Sample Type of parent sample of %s is empty", igoId));
+            correctedCmoSampleView.setSampleType(sampleType);
+
+            logDebugPayload(() -> String.format("Sample CMO Info record for sample %s converted: %s", igoId,
+                    correctedCmoSampleView));
+
+            return correctedCmoSampleView;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.velox.sloan;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.net.URI;
+
+/**
+ * Request factory capping connect and read timeouts of request by {@link CallDeadline} of calling thread so that
+ * request doesn't outlive time budget of run.
+ */
+class DeadlineAwareRequestFactory extends HttpComponentsClientHttpRequestFactory {
+    private final RequestConfig requestConfig;
+
+    DeadlineAwareRequestFactory(HttpClient httpClient, RequestConfig requestConfig) {
+        super(httpClient);
+        this.requestConfig = requestConfig;
+    }
+
+    @Override
+    protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+        CallDeadline deadline = CallDeadline.current();
+        if (deadline == null)
+            return null;
+
+        int remainingMillis = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.remainingMillis()));
+
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.copy(requestConfig)
+                .setConnectTimeout(Math.min(requestConfig.getConnectTimeout(), remainingMillis))
+                .setSocketTimeout(Math.min(requestConfig.getSocketTimeout(), remainingMillis))
+                .build());
+
+        return context;
+    }
+}
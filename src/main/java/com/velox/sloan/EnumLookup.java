@@ -0,0 +1,90 @@
+package com.velox.sloan;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * JVM-wide lookup table of LIMS field value to enum value. Table is built once from all values of enum, so lookup of
+ * neither valid nor invalid value calls parsing method of enum or throws exception, and table never grows with values
+ * found in LIMS.
+ */
+class EnumLookup<E> {
+    private final String name;
+    private final Map<String, E> value2Enum;
+
+    /**
+     * @param valueGetter LIMS field value of enum value, the one its parsing method accepts
+     */
+    EnumLookup(String name, E[] values, Function<E, String> valueGetter) {
+        this.name = name;
+
+        Map<String, E> value2Enum = new LinkedHashMap<>();
+        for (E enumValue : values)
+            value2Enum.putIfAbsent(valueGetter.apply(enumValue), enumValue);
+        this.value2Enum = ImmutableMap.copyOf(value2Enum);
+    }
+
+    Result<E> lookup(String value) {
+        if (StringUtils.isEmpty(value))
+            return Result.empty();
+
+        E enumValue = value2Enum.get(value);
+        if (enumValue == null)
+            return new Result<>(null, format("Unsupported %s: %s", name, value));
+
+        return new Result<>(enumValue, null);
+    }
+
+    static class Result<E> {
+        private static final Result<?> EMPTY = new Result<>(null, null);
+
+        private final E value;
+        private final String error;
+
+        private Result(E value, String error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <E> Result<E> empty() {
+            return (Result<E>) EMPTY;
+        }
+
+        boolean isEmpty() {
+            return value == null && error == null;
+        }
+
+        boolean isValid() {
+            return error == null;
+        }
+
+        String getError() {
+            return error;
+        }
+
+        /**
+         * @return enum value or null if field is empty or its value is not valid
+         */
+        E getValue() {
+            return value;
+        }
+
+        /**
+         * @return enum value or null if field is empty
+         * @throws RuntimeException if value is not valid
+         */
+        E get() {
+            if (error != null)
+                throw new RuntimeException(error);
+
+            return value;
+        }
+    }
+}
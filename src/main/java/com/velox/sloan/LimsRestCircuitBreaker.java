@@ -0,0 +1,56 @@
+package com.velox.sloan;
+
+import static java.lang.String.format;
+
+/**
+ * Circuit breaker shared by all plugin invocations calling LimsRest. After configured number of consecutive failed
+ * calls it opens and calls fail fast until open time passes. Then single trial call is let through which either
+ * closes breaker again or keeps it open for another period.
+ */
+class LimsRestCircuitBreaker {
+    private final int failureThreshold;
+    private final long openMillis;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialCallInProgress;
+
+    LimsRestCircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @throws RuntimeException if breaker is open and LimsRest shouldn't be called
+     */
+    synchronized void checkCallAllowed() {
+        if (consecutiveFailures < failureThreshold)
+            return;
+
+        long openForMillis = openedAt + openMillis - System.currentTimeMillis();
+        if (openForMillis > 0 || trialCallInProgress)
+            throw new RuntimeException(format("LimsRest is unavailable: last %d calls failed. It won't be called " +
+                    "for next %d s, try again later", consecutiveFailures, Math.max(1, openForMillis / 1000)));
+
+        trialCallInProgress = true;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        trialCallInProgress = false;
+    }
+
+    /**
+     * Ends call which failed for reason that says nothing about LimsRest health, e.g. request rejected with client
+     * error. Consecutive failures are neither reset nor increased, only trial call slot is released.
+     */
+    synchronized void onIgnoredFailure() {
+        trialCallInProgress = false;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (consecutiveFailures >= failureThreshold)
+            openedAt = System.currentTimeMillis();
+        trialCallInProgress = false;
+    }
+}
@@ -0,0 +1,273 @@
+package com.velox.sloan;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM-wide holder of LimsRest configuration and pooled http client shared by all plugin invocations in LIMS server.
+ * Properties file is read again and client rebuilt only when file changes on disk. Replaced client is closed with
+ * delay so that runs still using it can finish. {@link PatientCmoIdIndex} is not part of rebuilt client, it lives as
+ * long as JVM so that reservations given out before reload are still seen by runs after it.
+ */
+class LimsRestClientHolder {
+    private static final long RETIRED_CLIENT_CLOSE_DELAY_MINUTES = 5;
+    private static final ScheduledExecutorService retiredClientCloser = Executors.newSingleThreadScheduledExecutor
+            (r -> {
+                Thread thread = new Thread(r, "lims-rest-client-closer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static LimsRestClientHolder current;
+    private static PatientCmoIdIndex sharedPatientCmoIdIndex;
+
+    private final String propertiesFilePath;
+    private final long lastModified;
+    private final long length;
+    private final RegenerationConfig config;
+    private final CloseableHttpClient httpClient;
+    private final LimsRestCmoIdClient cmoIdClient;
+    private final CmoIdRequestCoalescer cmoIdCoalescer;
+    private final CmoIdPrecomputer cmoIdPrecomputer;
+    private final CmoIdFingerprintStore fingerprintStore;
+    private final PatientCmoIdIndex patientCmoIdIndex;
+
+    private LimsRestClientHolder(String propertiesFilePath, long lastModified, long length, RegenerationConfig
+            config) {
+        this.propertiesFilePath = propertiesFilePath;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.config = config;
+        RequestConfig requestConfig = createRequestConfig(config);
+        this.httpClient = createHttpClient(config, requestConfig);
+        this.cmoIdClient = new LimsRestCmoIdClient(createRestTemplate(httpClient, requestConfig), config);
+        this.cmoIdCoalescer = config.isCoalescingEnabled() ? new CmoIdRequestCoalescer(cmoIdClient, config) : null;
+        this.cmoIdPrecomputer = config.isPrecomputeEnabled() ? new CmoIdPrecomputer(config) : null;
+        this.fingerprintStore = createFingerprintStore(config);
+        this.patientCmoIdIndex = config.getLocalCmoIdMode() == LocalCmoIdMode.OFF ? null : getSharedPatientCmoIdIndex
+                (TimeUnit.MINUTES.toMillis(config.getPatientIndexTtlMinutes()));
+    }
+
+    private static synchronized PatientCmoIdIndex getSharedPatientCmoIdIndex(long ttlMillis) {
+        if (sharedPatientCmoIdIndex == null)
+            sharedPatientCmoIdIndex = new PatientCmoIdIndex(ttlMillis);
+        else
+            sharedPatientCmoIdIndex.setTtlMillis(ttlMillis);
+
+        return sharedPatientCmoIdIndex;
+    }
+
+    static synchronized LimsRestClientHolder get(String propertiesFilePath) {
+        File propertiesFile = new File(propertiesFilePath);
+        long lastModified = propertiesFile.lastModified();
+        long length = propertiesFile.length();
+
+        if (current != null && current.isLoadedFrom(propertiesFilePath, lastModified, length))
+            return current;
+
+        LimsRestClientHolder previous = current;
+        current = new LimsRestClientHolder(propertiesFilePath, lastModified, length, loadConfig(propertiesFile));
+
+        if (previous != null)
+            retiredClientCloser.schedule(previous::close, RETIRED_CLIENT_CLOSE_DELAY_MINUTES, TimeUnit.MINUTES);
+
+        return current;
+    }
+
+    private boolean isLoadedFrom(String propertiesFilePath, long lastModified, long length) {
+        return this.propertiesFilePath.equals(propertiesFilePath) && this.lastModified == lastModified && this
+                .length == length;
+    }
+
+    private static RegenerationConfig loadConfig(File propertiesFile) {
+        try (InputStream input = new FileInputStream(propertiesFile)) {
+            Properties prop = new Properties();
+            prop.load(input);
+            return RegenerationConfig.from(prop);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot read properties file with lims rest connection.", ex);
+        }
+    }
+
+    private static CmoIdFingerprintStore createFingerprintStore(RegenerationConfig config) {
+        if (!config.isDeltaRegeneration())
+            return null;
+
+        String storeFile = config.getFingerprintStoreFile();
+
+        return new CmoIdFingerprintStore(storeFile == null ? null : new File(storeFile), config
+                .getFingerprintStoreMaxSize(), TimeUnit.DAYS.toMillis(config.getFingerprintStoreTtlDays()));
+    }
+
+    private static RequestConfig createRequestConfig(RegenerationConfig config) {
+        return RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMs())
+                .setSocketTimeout(config.getReadTimeoutMs())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMs())
+                .build();
+    }
+
+    private static CloseableHttpClient createHttpClient(RegenerationConfig config, RequestConfig requestConfig) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager
+                (getSocketFactoryRegistry(config.getProfile()));
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultHeaders(Collections.singletonList(getBasicAuthorizationHeader(config)))
+                .setKeepAliveStrategy(getKeepAliveStrategy(config.getKeepAliveMs()))
+                .evictExpiredConnections()
+                .evictIdleConnections(config.getIdleConnectionEvictionMs(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private static Registry<ConnectionSocketFactory> getSocketFactoryRegistry(Profile profile) {
+        SSLConnectionSocketFactory sslSocketFactory = profile == Profile.DEV ? getInsecureSocketFactory() :
+                SSLConnectionSocketFactory.getSocketFactory();
+
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslSocketFactory)
+                .build();
+    }
+
+    /**
+     * Insecure socket factory accepting all host names in certificate. For DEV only!!!
+     * Needed until certificate on tango is self signed and host name is not machine tango.mskc.org
+     */
+    private static SSLConnectionSocketFactory getInsecureSocketFactory() {
+        try {
+            TrustStrategy acceptingTrustStrategy = (X509Certificate[] chain, String authType) -> true;
+
+            SSLContext sslContext = org.apache.http.ssl.SSLContexts.custom()
+                    .loadTrustMaterial(null, acceptingTrustStrategy)
+                    .build();
+
+            return new SSLConnectionSocketFactory(sslContext, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Keeps connection alive as long as server asks for in Keep-Alive header, otherwise for configured time.
+     */
+    private static ConnectionKeepAliveStrategy getKeepAliveStrategy(long keepAliveMs) {
+        return (response, context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+
+            return keepAliveMs;
+        };
+    }
+
+    /**
+     * Request body is not buffered so that it's streamed directly to connection. Basic authorization is therefore
+     * sent as default header of http client instead of by buffering request interceptor.
+     */
+    private static RestTemplate createRestTemplate(CloseableHttpClient httpClient, RequestConfig requestConfig) {
+        HttpComponentsClientHttpRequestFactory requestFactory = new DeadlineAwareRequestFactory(httpClient,
+                requestConfig);
+        requestFactory.setBufferRequestBody(false);
+
+        return new RestTemplate(requestFactory);
+    }
+
+    private static Header getBasicAuthorizationHeader(RegenerationConfig config) {
+        String credentials = config.getLimsRestUsername() + ":" + config.getLimsRestPassword();
+        String encodedCredentials = Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+
+        return new BasicHeader(HttpHeaders.AUTHORIZATION, "Basic " + encodedCredentials);
+    }
+
+    private void close() {
+        if (cmoIdPrecomputer != null)
+            cmoIdPrecomputer.close();
+        if (cmoIdCoalescer != null)
+            cmoIdCoalescer.close();
+        cmoIdClient.close();
+        try {
+            httpClient.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public RegenerationConfig getConfig() {
+        return config;
+    }
+
+    public LimsRestCmoIdClient getCmoIdClient() {
+        return cmoIdClient;
+    }
+
+    /**
+     * @return registry merging CMO Sample Id lookups of concurrent runs or null if they call LimsRest separately
+     */
+    public CmoIdRequestCoalescer getCmoIdCoalescer() {
+        return cmoIdCoalescer;
+    }
+
+    /**
+     * @return background worker precomputing CMO Sample Ids of saved records or null if precomputation is disabled
+     */
+    public CmoIdPrecomputer getCmoIdPrecomputer() {
+        return cmoIdPrecomputer;
+    }
+
+    /**
+     * @return store of CMO Sample Id inputs from last regeneration or null if delta regeneration is disabled
+     */
+    public CmoIdFingerprintStore getFingerprintStore() {
+        return fingerprintStore;
+    }
+
+    /**
+     * @return index of existing CMO Sample Ids of patients or null if local CMO Sample Id engine is off
+     */
+    public PatientCmoIdIndex getPatientCmoIdIndex() {
+        return patientCmoIdIndex;
+    }
+}
@@ -0,0 +1,369 @@
+package com.velox.sloan;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+import org.mskcc.util.rest.Header;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import static java.lang.String.format;
+
+/**
+ * Retrieves new CMO Sample Ids from LimsRest. Corrected Cmo Sample Views are split into chunks of configured size
+ * which are sent concurrently with bounded number of requests in flight. Samples of one patient are always sent in
+ * the same chunk, LimsRest gives out next free counter of patient and would give the same one in concurrent
+ * requests. Request body is streamed to connection and response is parsed incrementally.
+ * <p>
+ * All calls of one run share time budget. Chunk which fails with server error or I/O error is retried with jittered
+ * exponential backoff, CMO Sample Id retrieval has no side effects so it's safe to repeat. Optionally duplicate
+ * (hedged) request is sent when first one doesn't respond within p95 of recent response times. Circuit breaker shared
+ * by all runs stops calling LimsRest when it keeps failing.
+ * <p>
+ * If enabled, Smile is negotiated as wire format: it's preferred in Accept header and once LimsRest responds in Smile,
+ * requests are sent in Smile too. JSON is used otherwise.
+ */
+class LimsRestCmoIdClient {
+    private static final int LATENCY_SAMPLES = 100;
+
+    private final RestTemplate restTemplate;
+    private final RegenerationConfig config;
+    private final LimsRestCircuitBreaker circuitBreaker;
+    private final ExecutorService attemptExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "lims-rest-cmoid-attempt");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long[] latencyMillis = new long[LATENCY_SAMPLES];
+    private final List<MediaType> acceptedMediaTypes;
+    private int latencyCount;
+    private volatile boolean smileRequestSupported;
+    private volatile boolean smileRequestRejected;
+
+    LimsRestCmoIdClient(RestTemplate restTemplate, RegenerationConfig config) {
+        this.restTemplate = restTemplate;
+        this.config = config;
+        this.circuitBreaker = new LimsRestCircuitBreaker(config.getCircuitBreakerFailureThreshold(), config
+                .getCircuitBreakerOpenMs());
+        this.acceptedMediaTypes = getAcceptedMediaTypes(config);
+    }
+
+    /**
+     * Smile is preferred if enabled, server which doesn't support it answers with JSON.
+     */
+    private static List<MediaType> getAcceptedMediaTypes(RegenerationConfig config) {
+        if (!config.isSmileEnabled())
+            return Collections.singletonList(MediaType.APPLICATION_JSON);
+
+        return Arrays.asList(CmoIdWireFormat.SMILE.getMediaType(), new MediaType(MediaType.APPLICATION_JSON,
+                Collections.singletonMap("q", "0.9")));
+    }
+
+    /**
+     * Retrieves CMO Sample Ids for given views within configured time budget. Each chunk's igo id to CMO Sample Id
+     * pairs are passed to consumer once chunk succeeds. Consumer can be called concurrently from different chunks.
+     */
+    void getCmoIds(List<CorrectedCmoSampleView> correctedCmoSampleViews, BiConsumer<String, String>
+            igoIdToCmoIdConsumer, RegenerationRunSummary runSummary) {
+        List<List<CorrectedCmoSampleView>> chunks = partitionByPatient(correctedCmoSampleViews, config.getChunkSize());
+        CallDeadline deadline = CallDeadline.in(config.getCmoIdDeadlineMs());
+
+        if (chunks.size() <= 1) {
+            if (chunks.size() == 1)
+                getCmoIdsForChunk(chunks.get(0), igoIdToCmoIdConsumer, runSummary, deadline);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(config.getMaxConcurrentRequests(), chunks
+                .size()));
+
+        try {
+            List<Future<?>> chunkResults = new ArrayList<>();
+            for (List<CorrectedCmoSampleView> chunk : chunks)
+                chunkResults.add(executor.submit(() -> getCmoIdsForChunk(chunk, igoIdToCmoIdConsumer, runSummary,
+                        deadline)));
+
+            waitForChunks(chunks, chunkResults);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits views into chunks of at most given size without splitting samples of one patient. Patient with more
+     * samples than chunk size gets chunk of its own.
+     */
+    static List<List<CorrectedCmoSampleView>> partitionByPatient(List<CorrectedCmoSampleView> correctedCmoSampleViews,
+                                                                 int chunkSize) {
+        Map<String, List<CorrectedCmoSampleView>> patientId2Views = new LinkedHashMap<>();
+        for (CorrectedCmoSampleView view : correctedCmoSampleViews)
+            patientId2Views.computeIfAbsent(view.getPatientId(), patientId -> new ArrayList<>()).add(view);
+
+        List<List<CorrectedCmoSampleView>> chunks = new ArrayList<>();
+        List<CorrectedCmoSampleView> chunk = new ArrayList<>();
+        for (List<CorrectedCmoSampleView> patientViews : patientId2Views.values()) {
+            if (!chunk.isEmpty() && chunk.size() + patientViews.size() > chunkSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+            chunk.addAll(patientViews);
+        }
+
+        if (!chunk.isEmpty())
+            chunks.add(chunk);
+
+        return chunks;
+    }
+
+    private void waitForChunks(List<List<CorrectedCmoSampleView>> chunks, List<Future<?>> chunkResults) {
+        List<String> chunkErrors = new ArrayList<>();
+
+        for (int i = 0; i < chunkResults.size(); i++) {
+            try {
+                chunkResults.get(i).get();
+            } catch (ExecutionException e) {
+                chunkErrors.add(format("Chunk %d/%d (%d samples): %s", i + 1, chunks.size(), chunks.get(i).size(), e
+                        .getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for CMO Sample Ids", e);
+            }
+        }
+
+        if (chunkErrors.size() > 0)
+            throw new RuntimeException(format("CMO Sample Ids couldn't be retrieved for %d of %d chunks:\n%s",
+                    chunkErrors.size(), chunks.size(), String.join("\n", chunkErrors)));
+    }
+
+    private void getCmoIdsForChunk(List<CorrectedCmoSampleView> correctedCmoSampleViews, BiConsumer<String, String>
+            igoIdToCmoIdConsumer, RegenerationRunSummary runSummary, CallDeadline deadline) {
+        RuntimeException lastError = null;
+
+        for (int attempt = 1; attempt <= config.getMaxAttempts(); attempt++) {
+            if (attempt > 1) {
+                runSummary.count("limsRestRetries", 1);
+                if (!backOff(attempt, deadline))
+                    break;
+            }
+
+            circuitBreaker.checkCallAllowed();
+
+            try {
+                Map<String, String> igoId2CmoId = getCmoIdsWithHedging(correctedCmoSampleViews, runSummary,
+                        deadline);
+                circuitBreaker.onSuccess();
+                igoId2CmoId.forEach(igoIdToCmoIdConsumer);
+                return;
+            } catch (RuntimeException e) {
+                if (!isRetryable(e)) {
+                    circuitBreaker.onIgnoredFailure();
+                    throw e;
+                }
+
+                circuitBreaker.onFailure();
+                lastError = e;
+            }
+
+            if (deadline.isExpired())
+                break;
+        }
+
+        throw new RuntimeException(format("LimsRest failed within time budget of %d ms and %d attempts: %s", config
+                .getCmoIdDeadlineMs(), config.getMaxAttempts(), lastError.getMessage()), lastError);
+    }
+
+    /**
+     * Waits exponentially growing time with full jitter so that concurrent runs don't retry at the same time.
+     *
+     * @return false if there is not enough time left in budget to wait and retry
+     */
+    private boolean backOff(int attempt, CallDeadline deadline) {
+        long maxBackoff = Math.min(config.getRetryMaxBackoffMs(), (long) config.getRetryBackoffMs() << Math.min
+                (attempt - 2, 20));
+        long backoff = ThreadLocalRandom.current().nextLong(maxBackoff + 1);
+        if (backoff >= deadline.remainingMillis())
+            return false;
+
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to retry LimsRest call", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Server errors, timeouts and I/O errors are worth retrying, client errors and errors reported by LimsRest are
+     * not.
+     */
+    private static boolean isRetryable(RuntimeException e) {
+        return e instanceof HttpServerErrorException || e instanceof ResourceAccessException || e instanceof
+                AttemptTimeoutException;
+    }
+
+    /**
+     * Sends request and, if hedging is enabled and it doesn't respond within p95 of recent response times, one
+     * duplicate request. Result of first successful one is used and the other one is cancelled.
+     */
+    private Map<String, String> getCmoIdsWithHedging(List<CorrectedCmoSampleView> correctedCmoSampleViews,
+                                                     RegenerationRunSummary runSummary, CallDeadline deadline) {
+        CompletionService<Map<String, String>> attempts = new ExecutorCompletionService<>(attemptExecutor);
+        List<Future<Map<String, String>>> pending = new ArrayList<>();
+
+        try {
+            pending.add(attempts.submit(() -> getCmoIdsForChunk(correctedCmoSampleViews, runSummary, deadline)));
+
+            Future<Map<String, String>> completed = null;
+            if (config.isHedgingEnabled()) {
+                completed = attempts.poll(Math.min(getHedgingDelayMillis(), deadline.remainingMillis()), TimeUnit
+                        .MILLISECONDS);
+                if (completed == null && !deadline.isExpired()) {
+                    runSummary.count("limsRestHedges", 1);
+                    pending.add(attempts.submit(() -> getCmoIdsForChunk(correctedCmoSampleViews, runSummary,
+                            deadline)));
+                }
+            }
+
+            ExecutionException firstError = null;
+            for (int done = 0; done < pending.size(); done++) {
+                if (completed == null || done > 0)
+                    completed = attempts.poll(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                if (completed == null)
+                    throw new AttemptTimeoutException(format("LimsRest didn't respond within time budget of %d ms",
+                            config.getCmoIdDeadlineMs()));
+
+                try {
+                    return completed.get();
+                } catch (ExecutionException e) {
+                    if (firstError == null)
+                        firstError = e;
+                }
+            }
+
+            throw unwrap(firstError);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for CMO Sample Ids", e);
+        } finally {
+            for (Future<Map<String, String>> attempt : pending)
+                attempt.cancel(true);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException)
+            return (RuntimeException) e.getCause();
+
+        return new RuntimeException(e.getCause().getMessage(), e.getCause());
+    }
+
+    /**
+     * Request body is sent as Smile only once LimsRest answered in Smile, which means it supports it. If it rejects
+     * Smile request anyway, chunk is sent again as JSON and JSON is used from then on.
+     */
+    private Map<String, String> getCmoIdsForChunk(List<CorrectedCmoSampleView> correctedCmoSampleViews,
+                                                  RegenerationRunSummary runSummary, CallDeadline deadline) {
+        CmoIdWireFormat requestFormat = smileRequestSupported ? CmoIdWireFormat.SMILE : CmoIdWireFormat.JSON;
+
+        try {
+            return getCmoIdsForChunk(correctedCmoSampleViews, runSummary, deadline, requestFormat);
+        } catch (HttpClientErrorException e) {
+            if (requestFormat != CmoIdWireFormat.SMILE || e.getStatusCode() != HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                throw e;
+
+            smileRequestSupported = false;
+            smileRequestRejected = true;
+            return getCmoIdsForChunk(correctedCmoSampleViews, runSummary, deadline, CmoIdWireFormat.JSON);
+        }
+    }
+
+    private Map<String, String> getCmoIdsForChunk(List<CorrectedCmoSampleView> correctedCmoSampleViews,
+                                                  RegenerationRunSummary runSummary, CallDeadline deadline,
+                                                  CmoIdWireFormat requestFormat) {
+        runSummary.count(RegenerationRunSummary.LIMS_REST_REQUESTS, 1);
+        Map<String, String> igoId2CmoId = new LinkedHashMap<>();
+        long start = System.nanoTime();
+
+        CallDeadline.setCurrent(deadline);
+        try {
+            restTemplate.execute(config.getCmoIdUrl(), HttpMethod.POST, request -> {
+                request.getHeaders().setContentType(requestFormat.getMediaType());
+                request.getHeaders().setAccept(acceptedMediaTypes);
+                if (config.isGzipRequest())
+                    request.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+                CountingOutputStream body = new CountingOutputStream(request.getBody());
+                CmoIdCodec.writeViews(correctedCmoSampleViews, body, config.isGzipRequest(), requestFormat);
+                runSummary.count(RegenerationRunSummary.LIMS_REST_BYTES_SENT, body.getCount());
+            }, response -> {
+                validateResponse(response.getHeaders());
+                CmoIdWireFormat responseFormat = CmoIdWireFormat.fromContentType(response.getHeaders()
+                        .getContentType());
+                if (responseFormat == CmoIdWireFormat.SMILE && !smileRequestRejected)
+                    smileRequestSupported = true;
+
+                CountingInputStream body = new CountingInputStream(response.getBody());
+                CmoIdCodec.readCmoIds(body, igoId2CmoId::put, responseFormat);
+                runSummary.count(RegenerationRunSummary.LIMS_REST_BYTES_RECEIVED, body.getCount());
+                return null;
+            });
+        } finally {
+            CallDeadline.setCurrent(null);
+        }
+
+        recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return igoId2CmoId;
+    }
+
+    private synchronized void recordLatency(long millis) {
+        latencyMillis[latencyCount % LATENCY_SAMPLES] = millis;
+        latencyCount++;
+    }
+
+    /**
+     * @return p95 of recent successful response times, but at least configured min delay
+     */
+    private synchronized long getHedgingDelayMillis() {
+        int samples = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (samples == 0)
+            return config.getHedgingMinDelayMs();
+
+        long[] sorted = Arrays.copyOf(latencyMillis, samples);
+        Arrays.sort(sorted);
+
+        return Math.max(config.getHedgingMinDelayMs(), sorted[(int) Math.ceil(samples * 0.95) - 1]);
+    }
+
+    void close() {
+        attemptExecutor.shutdownNow();
+    }
+
+    private void validateResponse(HttpHeaders headers) {
+        if (hasErrors(headers))
+            throw new RuntimeException(format("CMO Sample Ids  couldn't be retrieved. Cause: %s", headers.get(Header
+                    .ERRORS.name())));
+    }
+
+    private boolean hasErrors(HttpHeaders headers) {
+        return headers.containsKey(Header.ERRORS.name()) && headers.get(Header.ERRORS.name()).size() > 0;
+    }
+
+    private static class AttemptTimeoutException extends RuntimeException {
+        private AttemptTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.velox.sloan;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.lang3.StringUtils;
+import org.mskcc.domain.sample.SpecimenType;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/**
+ * Computes corrected CMO Sample Ids locally from Sample CMO Info fields, parent sample and existing CMO Sample Ids of
+ * patient kept in {@link PatientCmoIdIndex}:
+ * <ul>
+ * <li>cell line: {@code <user sample id>-<request id>}</li>
+ * <li>other: {@code <patient id>-<sample type abbreviation><counter>-<nucleic acid abbreviation>}, e.g.
+ * C-ABC123-P001-d, where counter is next free one of patient and sample type abbreviation</li>
+ * </ul>
+ * Sample which CMO Sample Id already has computed sample type and nucleic acid abbreviation keeps it. Samples engine
+ * can't resolve, e.g. with unknown sample class or not indexed patient, are resolved to null and have to be sent to
+ * LimsRest. Counters are reserved in shared {@link PatientCmoIdIndex} when they are given out, so concurrent runs
+ * never give out the same counter of patient. Locally computed CMO Sample Ids are provisional until they are saved.
+ * <p>
+ * Abbreviations mirror naming rules of LimsRest, which are not available to plugin, so they are checked only by
+ * {@link LocalCmoIdMode#SHADOW} mode comparing every locally computed id with LimsRest one. Values missing in these
+ * tables are never guessed, such samples are resolved by LimsRest.
+ */
+class LocalCmoIdEngine {
+    private static final Pattern COUNTER_PATTERN = Pattern.compile("([A-Z])(\\d{3,})-([a-z])");
+
+    static final Map<String, String> SPECIMEN_TYPE_ABBREVIATIONS = ImmutableMap.of(
+            "PDX", "X",
+            "Xenograft", "X",
+            "XenograftDerivedCellLine", "X",
+            "Organoid", "G");
+
+    static final Map<String, String> SAMPLE_CLASS_ABBREVIATIONS = ImmutableMap.<String, String>builder()
+            .put("Primary", "P")
+            .put("Metastasis", "M")
+            .put("Local Recurrence", "R")
+            .put("Recurrence", "R")
+            .put("Normal", "N")
+            .put("Adjacent Normal", "N")
+            .put("Unknown Tumor", "T")
+            .build();
+
+    static final Map<String, String> NUCLEIC_ACID_ABBREVIATIONS = ImmutableMap.of(
+            "DNA", "d",
+            "RNA", "r");
+
+    private final PatientCmoIdIndex patientIndex;
+
+    LocalCmoIdEngine(PatientCmoIdIndex patientIndex) {
+        this.patientIndex = patientIndex;
+    }
+
+    /**
+     * @return locally computed CMO Sample Id or null if it has to be retrieved from LimsRest
+     */
+    String resolve(SampleCmoInfoFields fields, ParentSampleIndex.ParentSample parentSample) {
+        if (SpecimenType.CELLLINE == SampleFieldLookups.SPECIMEN_TYPE.lookup(fields.getSpecimenType()).getValue())
+            return resolveCellLine(fields);
+
+        String patientId = fields.getCmoPatientId();
+        String sampleTypeAbbreviation = getSampleTypeAbbreviation(fields);
+        String nucleicAcidAbbreviation = NUCLEIC_ACID_ABBREVIATIONS.get(parentSample.getNaToExtract());
+
+        if (StringUtils.isEmpty(patientId) || sampleTypeAbbreviation == null || nucleicAcidAbbreviation == null)
+            return null;
+
+        Matcher current = matchCounter(patientId, fields.getCorrectedCmoId());
+        boolean keepsCurrent = current != null && sampleTypeAbbreviation.equals(current.group(1)) &&
+                nucleicAcidAbbreviation.equals(current.group(3));
+
+        return patientIndex.reserve(patientId, fields.getIgoId(), otherCmoIds -> {
+            if (keepsCurrent)
+                return fields.getCorrectedCmoId();
+
+            int maxCounter = 0;
+            for (String otherCmoId : otherCmoIds) {
+                Matcher existing = matchCounter(patientId, otherCmoId);
+                if (existing != null && sampleTypeAbbreviation.equals(existing.group(1)))
+                    maxCounter = Math.max(maxCounter, Integer.parseInt(existing.group(2)));
+            }
+
+            return format("%s-%s%03d-%s", patientId, sampleTypeAbbreviation, maxCounter + 1,
+                    nucleicAcidAbbreviation);
+        });
+    }
+
+    private String resolveCellLine(SampleCmoInfoFields fields) {
+        if (StringUtils.isEmpty(fields.getUserSampleId()) || StringUtils.isEmpty(fields.getRequestId()))
+            return null;
+
+        return format("%s-%s", fields.getUserSampleId(), fields.getRequestId());
+    }
+
+    private static String getSampleTypeAbbreviation(SampleCmoInfoFields fields) {
+        String specimenTypeAbbreviation = SPECIMEN_TYPE_ABBREVIATIONS.get(fields.getSpecimenType());
+        if (specimenTypeAbbreviation != null)
+            return specimenTypeAbbreviation;
+
+        return SAMPLE_CLASS_ABBREVIATIONS.get(fields.getCmoSampleClass());
+    }
+
+    private static Matcher matchCounter(String patientId, String cmoId) {
+        String prefix = patientId + "-";
+        if (cmoId == null || !cmoId.startsWith(prefix))
+            return null;
+
+        Matcher matcher = COUNTER_PATTERN.matcher(cmoId.substring(prefix.length()));
+
+        return matcher.matches() ? matcher : null;
+    }
+}
@@ -0,0 +1,47 @@
+package com.velox.sloan;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Role of {@link LocalCmoIdEngine} in CMO Sample Id regeneration.
+ * <ul>
+ * <li>off - all CMO Sample Ids are retrieved from LimsRest</li>
+ * <li>shadow - CMO Sample Ids are retrieved from LimsRest and compared with locally computed ones</li>
+ * <li>authoritative - locally computed CMO Sample Ids are used, LimsRest is called only for patients with any sample
+ * engine can't resolve</li>
+ * </ul>
+ */
+public enum LocalCmoIdMode {
+    OFF("off"),
+    SHADOW("shadow"),
+    AUTHORITATIVE("authoritative");
+
+    private static final Map<String, LocalCmoIdMode> nameToMode = new HashMap<>();
+
+    static {
+        for (LocalCmoIdMode enumValue : values()) {
+            nameToMode.put(enumValue.name, enumValue);
+        }
+    }
+
+    private final String name;
+
+    LocalCmoIdMode(String name) {
+        this.name = name;
+    }
+
+    public static LocalCmoIdMode fromString(String name) {
+        if (!nameToMode.containsKey(name))
+            throw new RuntimeException(format("Unsupported %s: %s", LocalCmoIdMode.class.getName(), name));
+
+        return nameToMode.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
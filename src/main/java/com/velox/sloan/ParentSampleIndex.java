@@ -0,0 +1,112 @@
+package com.velox.sloan;
+
+import com.velox.api.datarecord.DataRecord;
+import com.velox.api.datarecord.DataRecordManager;
+import com.velox.api.user.User;
+import org.mskcc.domain.sample.Sample;
+
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Index of parent Samples of Sample CMO Info Records by igo id. Parents of all records and their fields are
+ * retrieved with bulk calls so that parent resolution costs constant number of server calls regardless of number of
+ * records.
+ */
+class ParentSampleIndex {
+    static final String SAMPLE_DATA_TYPE = "Sample";
+
+    private final Map<String, ParentSample> igoId2ParentSample;
+    private final int remoteCalls;
+
+    private ParentSampleIndex(Map<String, ParentSample> igoId2ParentSample, int remoteCalls) {
+        this.igoId2ParentSample = igoId2ParentSample;
+        this.remoteCalls = remoteCalls;
+    }
+
+    static ParentSampleIndex build(DataRecordManager dataRecordManager, List<CmoInfoRecord> cmoInfoRecords, User
+            user) throws Exception {
+        List<DataRecord> records = new ArrayList<>();
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords)
+            records.add(cmoInfoRecord.getRecord());
+
+        List<List<DataRecord>> recordsParents = dataRecordManager.getParentsOfType(records, SAMPLE_DATA_TYPE, user);
+
+        List<DataRecord> parents = new ArrayList<>();
+        for (List<DataRecord> recordParents : recordsParents)
+            parents.addAll(recordParents);
+
+        List<Map<String, Object>> parentsFields = parents.isEmpty() ? Collections.emptyList() : dataRecordManager
+                .getFieldsForRecords(parents, user);
+
+        Map<String, ParentSample> sampleId2Parent = new HashMap<>();
+        for (int i = 0; i < parents.size(); i++) {
+            ParentSample parentSample = new ParentSample(parents.get(i), parentsFields.get(i));
+            sampleId2Parent.put(parentSample.getIgoId(), parentSample);
+        }
+
+        Map<String, ParentSample> igoId2ParentSample = new HashMap<>();
+        for (CmoInfoRecord cmoInfoRecord : cmoInfoRecords) {
+            String igoId = cmoInfoRecord.getFields().getIgoId();
+            if (sampleId2Parent.containsKey(igoId))
+                igoId2ParentSample.put(igoId, sampleId2Parent.get(igoId));
+        }
+
+        return new ParentSampleIndex(igoId2ParentSample, parents.isEmpty() ? 1 : 2);
+    }
+
+    ParentSample getParentSample(String igoId) {
+        if (!igoId2ParentSample.containsKey(igoId))
+            throw new RuntimeException(format("No parent samples found for Sample Level Info record with igo id: " +
+                    "%s", igoId));
+
+        return igoId2ParentSample.get(igoId);
+    }
+
+    /**
+     * @return number of calls to LIMS server made to build this index
+     */
+    int getRemoteCalls() {
+        return remoteCalls;
+    }
+
+    int size() {
+        return igoId2ParentSample.size();
+    }
+
+    static class ParentSample {
+        private final DataRecord record;
+        private final String igoId;
+        private final String naToExtract;
+        private final String sampleType;
+
+        ParentSample(DataRecord record, Map<String, Object> fields) {
+            this.record = record;
+            this.igoId = getString(fields, SampleCmoInfoFields.SAMPLE_ID);
+            this.naToExtract = getString(fields, Sample.NATO_EXTRACT);
+            this.sampleType = getString(fields, Sample.EXEMPLAR_SAMPLE_TYPE);
+        }
+
+        private static String getString(Map<String, Object> fields, String fieldName) {
+            Object value = fields.get(fieldName);
+            return value == null ? null : Objects.toString(value);
+        }
+
+        public DataRecord getRecord() {
+            return record;
+        }
+
+        public String getIgoId() {
+            return igoId;
+        }
+
+        public String getNaToExtract() {
+            return naToExtract;
+        }
+
+        public String getSampleType() {
+            return sampleType;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.velox.sloan;
+
+import org.mskcc.domain.sample.*;
+
+/**
+ * Enum values of Sample CMO Info Record and its parent Sample fields looked up once during validation and reused by
+ * conversion to Corrected Cmo Sample View. Invalid values are kept as errors instead of exceptions.
+ */
+class ParsedSampleFields {
+    private final EnumLookup.Result<SpecimenType> specimenType;
+    private final EnumLookup.Result<SampleClass> sampleClass;
+    private final EnumLookup.Result<SampleOrigin> sampleOrigin;
+    private final boolean parentSampleFound;
+    private final String parentSampleError;
+    private final EnumLookup.Result<SampleType> sampleType;
+    private final EnumLookup.Result<NucleicAcid> nucleicAcid;
+
+    private ParsedSampleFields(SampleCmoInfoFields fields, ParentSampleIndex.ParentSample parentSample, String
+            parentSampleError) {
+        this.specimenType = SampleFieldLookups.SPECIMEN_TYPE.lookup(fields.getSpecimenType());
+        this.sampleClass = SampleFieldLookups.SAMPLE_CLASS.lookup(fields.getCmoSampleClass());
+        this.sampleOrigin = SampleFieldLookups.SAMPLE_ORIGIN.lookup(fields.getSampleOrigin());
+        this.parentSampleFound = parentSample != null;
+        this.parentSampleError = parentSampleError;
+        this.sampleType = parentSample == null ? EnumLookup.Result.empty() : SampleFieldLookups.SAMPLE_TYPE.lookup
+                (parentSample.getSampleType());
+        this.nucleicAcid = parentSample == null ? EnumLookup.Result.empty() : SampleFieldLookups.NUCLEIC_ACID.lookup
+                (parentSample.getNaToExtract());
+    }
+
+    /**
+     * @param parentSample      parent Sample or null if it couldn't be retrieved
+     * @param parentSampleError reason why parent Sample couldn't be retrieved
+     */
+    static ParsedSampleFields of(SampleCmoInfoFields fields, ParentSampleIndex.ParentSample parentSample, String
+            parentSampleError) {
+        return new ParsedSampleFields(fields, parentSample, parentSampleError);
+    }
+
+    EnumLookup.Result<SpecimenType> getSpecimenType() {
+        return specimenType;
+    }
+
+    EnumLookup.Result<SampleClass> getSampleClass() {
+        return sampleClass;
+    }
+
+    EnumLookup.Result<SampleOrigin> getSampleOrigin() {
+        return sampleOrigin;
+    }
+
+    boolean hasParentSample() {
+        return parentSampleFound;
+    }
+
+    String getParentSampleError() {
+        return parentSampleError;
+    }
+
+    EnumLookup.Result<SampleType> getSampleType() {
+        return sampleType;
+    }
+
+    EnumLookup.Result<NucleicAcid> getNucleicAcid() {
+        return nucleicAcid;
+    }
+}
@@ -0,0 +1,204 @@
+package com.velox.sloan;
+
+import com.google.common.collect.Lists;
+import com.velox.api.datarecord.DataRecord;
+import com.velox.api.datarecord.DataRecordManager;
+import com.velox.api.user.User;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * JVM-wide index of existing CMO Sample Ids of every patient by igo id. Patients are loaded from LIMS with bulk
+ * queries when they are first needed or their entry expires, and updated incrementally with CMO Sample Ids saved by
+ * regeneration. CMO Sample Ids computed locally but not saved yet are kept as reservations, which survive reload of
+ * patient and expire after the same time as patient entry. There is one index per JVM, it is not rebuilt when
+ * properties file changes so that reservations of runs in flight are not lost.
+ */
+class PatientCmoIdIndex {
+    private static final int MAX_PATIENTS_PER_QUERY = 500;
+
+    private volatile long ttlMillis;
+    private final Map<String, Entry> patientId2Entry = new HashMap<>();
+    private final Map<String, String> igoId2PatientId = new HashMap<>();
+
+    PatientCmoIdIndex(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Loads patients which are not indexed yet or which entries expired. Patients are queried outside of lock so
+     * that concurrent runs aren't blocked by LIMS calls.
+     *
+     * @return number of calls to LIMS server made
+     */
+    int load(DataRecordManager dataRecordManager, Collection<String> patientIds, User user) throws Exception {
+        List<String> patientsToLoad = getPatientsToLoad(patientIds);
+        int remoteCalls = 0;
+
+        for (List<String> patientsChunk : Lists.partition(patientsToLoad, MAX_PATIENTS_PER_QUERY)) {
+            Map<String, Map<String, String>> patientId2SavedCmoIds = new HashMap<>();
+            remoteCalls += querySavedCmoIds(dataRecordManager, patientsChunk, user, patientId2SavedCmoIds);
+
+            Map<String, Entry> loaded = new HashMap<>();
+            for (String patientId : patientsChunk) {
+                Entry entry = new Entry();
+                entry.igoId2CmoId.putAll(patientId2SavedCmoIds.get(patientId));
+                loaded.put(patientId, entry);
+            }
+
+            synchronized (this) {
+                for (Map.Entry<String, Entry> patientIdToEntry : loaded.entrySet()) {
+                    Entry previous = patientId2Entry.put(patientIdToEntry.getKey(), patientIdToEntry.getValue());
+                    if (previous != null)
+                        patientIdToEntry.getValue().igoId2Reservation.putAll(previous.igoId2Reservation);
+                    for (String igoId : patientIdToEntry.getValue().igoId2CmoId.keySet())
+                        igoId2PatientId.put(igoId, patientIdToEntry.getKey());
+                }
+            }
+        }
+
+        return remoteCalls;
+    }
+
+    /**
+     * Queries CMO Sample Ids saved in LIMS of patients, bypassing index and its reservations, e.g. to check CMO Sample
+     * Ids computed without index.
+     *
+     * @param patientId2SavedCmoIds receives saved CMO Sample Ids by igo id of every queried patient
+     * @return number of calls to LIMS server made
+     */
+    static int querySavedCmoIds(DataRecordManager dataRecordManager, Collection<String> patientIds, User user,
+                                Map<String, Map<String, String>> patientId2SavedCmoIds) throws Exception {
+        int remoteCalls = 0;
+        for (List<String> patientsChunk : Lists.partition(new ArrayList<>(new TreeSet<>(patientIds)),
+                MAX_PATIENTS_PER_QUERY)) {
+            List<DataRecord> records = dataRecordManager.queryDataRecords(SampleCmoInfoFields.DATA_TYPE_NAME,
+                    getPatientsWhereClause(patientsChunk), user);
+            remoteCalls++;
+
+            List<Map<String, Object>> recordsFields = records.isEmpty() ? Collections.emptyList() : dataRecordManager
+                    .getFieldsForRecords(records, user);
+            if (!records.isEmpty())
+                remoteCalls++;
+
+            for (String patientId : patientsChunk)
+                patientId2SavedCmoIds.put(patientId, new HashMap<>());
+
+            for (Map<String, Object> recordFields : recordsFields) {
+                SampleCmoInfoFields fields = SampleCmoInfoFields.from(recordFields);
+                Map<String, String> igoId2CmoId = patientId2SavedCmoIds.get(fields.getCmoPatientId());
+                if (igoId2CmoId != null && fields.getIgoId() != null && !StringUtils.isEmpty(fields
+                        .getCorrectedCmoId()))
+                    igoId2CmoId.put(fields.getIgoId(), fields.getCorrectedCmoId());
+            }
+        }
+
+        return remoteCalls;
+    }
+
+    private synchronized List<String> getPatientsToLoad(Collection<String> patientIds) {
+        long now = System.currentTimeMillis();
+        List<String> patientsToLoad = new ArrayList<>();
+        for (String patientId : new TreeSet<>(patientIds)) {
+            Entry entry = patientId2Entry.get(patientId);
+            if (entry == null || now - entry.loadedAt > ttlMillis)
+                patientsToLoad.add(patientId);
+        }
+
+        return patientsToLoad;
+    }
+
+    private static String getPatientsWhereClause(List<String> patientIds) {
+        StringJoiner values = new StringJoiner(", ", "(", ")");
+        for (String patientId : patientIds)
+            values.add("'" + patientId.replace("'", "''") + "'");
+
+        return format("%s in %s", SampleCmoInfoFields.CMO_PATIENT_ID, values);
+    }
+
+    /**
+     * Computes CMO Sample Id of sample from CMO Sample Ids of all other samples of patient, saved or reserved, and
+     * reserves it for sample until it's saved or reservation expires. It's done under lock so that concurrent runs
+     * never compute the same counter. Repeated reservation of the same sample replaces previous one.
+     *
+     * @return reserved CMO Sample Id or null if patient is not indexed
+     */
+    synchronized String reserve(String patientId, String igoId, Function<Collection<String>, String> cmoIdFactory) {
+        Entry entry = patientId2Entry.get(patientId);
+        if (entry == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        entry.igoId2Reservation.values().removeIf(reservation -> now - reservation.reservedAt > ttlMillis);
+
+        List<String> otherCmoIds = new ArrayList<>();
+        for (Map.Entry<String, String> igoIdToCmoId : entry.igoId2CmoId.entrySet()) {
+            if (!igoIdToCmoId.getKey().equals(igoId))
+                otherCmoIds.add(igoIdToCmoId.getValue());
+        }
+        for (Map.Entry<String, Reservation> igoIdToReservation : entry.igoId2Reservation.entrySet()) {
+            if (!igoIdToReservation.getKey().equals(igoId))
+                otherCmoIds.add(igoIdToReservation.getValue().cmoId);
+        }
+
+        String cmoId = cmoIdFactory.apply(otherCmoIds);
+        entry.igoId2Reservation.put(igoId, new Reservation(cmoId, now));
+
+        return cmoId;
+    }
+
+    /**
+     * Drops reservations of samples which locally computed CMO Sample Ids won't be saved, e.g. because their patient
+     * is sent to LimsRest instead.
+     */
+    synchronized void release(String patientId, Collection<String> igoIds) {
+        Entry entry = patientId2Entry.get(patientId);
+        if (entry != null)
+            entry.igoId2Reservation.keySet().removeAll(igoIds);
+    }
+
+    /**
+     * Records CMO Sample Id saved to LIMS, it replaces reservation of sample. Sample is removed from any other patient
+     * it was indexed under so that patient change doesn't leave stale counter behind.
+     */
+    synchronized void put(String patientId, String igoId, String cmoId) {
+        String previousPatientId = igoId2PatientId.remove(igoId);
+        if (previousPatientId != null && patientId2Entry.containsKey(previousPatientId))
+            patientId2Entry.get(previousPatientId).igoId2CmoId.remove(igoId);
+
+        Entry entry = patientId2Entry.get(patientId);
+        if (entry != null) {
+            entry.igoId2CmoId.put(igoId, cmoId);
+            entry.igoId2Reservation.remove(igoId);
+            igoId2PatientId.put(igoId, patientId);
+        }
+    }
+
+    synchronized int size() {
+        return patientId2Entry.size();
+    }
+
+    private static class Entry {
+        private final Map<String, String> igoId2CmoId = new HashMap<>();
+        private final Map<String, Reservation> igoId2Reservation = new HashMap<>();
+        private final long loadedAt = System.currentTimeMillis();
+    }
+
+    private static class Reservation {
+        private final String cmoId;
+        private final long reservedAt;
+
+        private Reservation(String cmoId, long reservedAt) {
+            this.cmoId = cmoId;
+            this.reservedAt = reservedAt;
+        }
+    }
+}
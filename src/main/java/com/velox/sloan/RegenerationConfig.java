@@ -0,0 +1,509 @@
+package com.velox.sloan;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Properties;
+
+import static java.lang.String.format;
+
+/**
+ * Immutable configuration of CMO Sample Id regeneration read from cmo-sample-id-regeneration.properties file.
+ */
+class RegenerationConfig {
+    static final Profile DEFAULT_PROFILE = Profile.PROD;
+    static final int DEFAULT_CHUNK_SIZE = 100;
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    static final int DEFAULT_MAX_CONNECTIONS = 20;
+    static final int DEFAULT_CONNECT_TIMEOUT_MS = 5_000;
+    static final int DEFAULT_READ_TIMEOUT_MS = 120_000;
+    static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MS = 10_000;
+    static final int DEFAULT_KEEP_ALIVE_MS = 30_000;
+    static final int DEFAULT_IDLE_CONNECTION_EVICTION_MS = 60_000;
+    static final int DEFAULT_CMO_ID_DEADLINE_MS = 60_000;
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final int DEFAULT_RETRY_BACKOFF_MS = 200;
+    static final int DEFAULT_RETRY_MAX_BACKOFF_MS = 5_000;
+    static final int DEFAULT_HEDGING_MIN_DELAY_MS = 500;
+    static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    static final int DEFAULT_CIRCUIT_BREAKER_OPEN_MS = 30_000;
+    static final int DEFAULT_COALESCING_WINDOW_MS = 20;
+    static final int DEFAULT_FINGERPRINT_STORE_MAX_SIZE = 100_000;
+    static final int DEFAULT_FINGERPRINT_STORE_TTL_DAYS = 90;
+    static final int DEFAULT_LOG_PAYLOAD_MAX_CHARS = 4_000;
+    static final int DEFAULT_PATIENT_INDEX_TTL_MINUTES = 10;
+    static final int DEFAULT_MAX_VALIDATION_ERRORS = 100;
+    static final int DEFAULT_VALIDATION_ERRORS_MAX_CHARS = 4_000;
+    static final int DEFAULT_BULK_PAGE_SIZE = 500;
+    static final int DEFAULT_BULK_RECORD_ID_RANGE = 10_000;
+    static final String DEFAULT_REPORT_DIR = "sapio/exemplarlims/plugins/cmo-sample-id-reports";
+    static final int DEFAULT_REPORT_RETENTION_DAYS = 30;
+    static final int DEFAULT_REVIEW_MAX_LINES = 20;
+    static final int DEFAULT_REVIEW_MAX_PATIENTS = 10;
+    static final int DEFAULT_PRECOMPUTE_MAX_SIZE = 10_000;
+    static final int DEFAULT_PRECOMPUTE_TTL_MINUTES = 30;
+    static final int DEFAULT_PRECOMPUTE_QUEUE_CAPACITY = 100;
+
+    private final String limsRestUrl;
+    private final String limsRestUsername;
+    private final String limsRestPassword;
+    private final String cmoIdEndpoint;
+    private final String profileName;
+    private final Profile profile;
+    private final int chunkSize;
+    private final int maxConcurrentRequests;
+    private final int maxConnections;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int connectionRequestTimeoutMs;
+    private final int keepAliveMs;
+    private final int idleConnectionEvictionMs;
+    private final boolean gzipRequest;
+    private final boolean smileEnabled;
+    private final int cmoIdDeadlineMs;
+    private final int maxAttempts;
+    private final int retryBackoffMs;
+    private final int retryMaxBackoffMs;
+    private final boolean hedgingEnabled;
+    private final int hedgingMinDelayMs;
+    private final int circuitBreakerFailureThreshold;
+    private final int circuitBreakerOpenMs;
+    private final boolean coalescingEnabled;
+    private final int coalescingWindowMs;
+    private final boolean cmoIdCacheBypass;
+    private final boolean deltaRegeneration;
+    private final String fingerprintStoreFile;
+    private final int fingerprintStoreMaxSize;
+    private final int fingerprintStoreTtlDays;
+    private final int logPayloadMaxChars;
+    private final boolean logDebugPayloads;
+    private final int maxValidationErrors;
+    private final int validationErrorsMaxChars;
+    private final LocalCmoIdMode localCmoIdMode;
+    private final int patientIndexTtlMinutes;
+    private final String bulkQuery;
+    private final String bulkRequestId;
+    private final boolean bulkDryRun;
+    private final int bulkPageSize;
+    private final int bulkRecordIdRange;
+    private final String bulkCheckpointFile;
+    private final String reportDir;
+    private final int reportRetentionDays;
+    private final int reviewMaxLines;
+    private final int reviewMaxPatients;
+    private final boolean precomputeEnabled;
+    private final int precomputeMaxSize;
+    private final int precomputeTtlMinutes;
+    private final int precomputeQueueCapacity;
+
+    private RegenerationConfig(Properties prop) {
+        limsRestUrl = prop.getProperty("lims.rest.url");
+        limsRestUsername = prop.getProperty("lims.rest.username");
+        limsRestPassword = prop.getProperty("lims.rest.password");
+        cmoIdEndpoint = prop.getProperty("lims.rest.cmoid.endpoint");
+        profileName = prop.getProperty("profile");
+        profile = getProfile(profileName);
+        chunkSize = getPositiveInt(prop, "lims.rest.cmoid.chunk.size", DEFAULT_CHUNK_SIZE);
+        maxConcurrentRequests = getPositiveInt(prop, "lims.rest.cmoid.max.concurrent.requests",
+                DEFAULT_MAX_CONCURRENT_REQUESTS);
+        maxConnections = getPositiveInt(prop, "lims.rest.max.connections", DEFAULT_MAX_CONNECTIONS);
+        connectTimeoutMs = getPositiveInt(prop, "lims.rest.connect.timeout.ms", DEFAULT_CONNECT_TIMEOUT_MS);
+        readTimeoutMs = getPositiveInt(prop, "lims.rest.read.timeout.ms", DEFAULT_READ_TIMEOUT_MS);
+        connectionRequestTimeoutMs = getPositiveInt(prop, "lims.rest.connection.request.timeout.ms",
+                DEFAULT_CONNECTION_REQUEST_TIMEOUT_MS);
+        keepAliveMs = getPositiveInt(prop, "lims.rest.keep.alive.ms", DEFAULT_KEEP_ALIVE_MS);
+        idleConnectionEvictionMs = getPositiveInt(prop, "lims.rest.idle.connection.eviction.ms",
+                DEFAULT_IDLE_CONNECTION_EVICTION_MS);
+        gzipRequest = getBoolean(prop, "lims.rest.cmoid.gzip.request", false);
+        smileEnabled = getBoolean(prop, "lims.rest.cmoid.smile.enabled", true);
+        cmoIdDeadlineMs = getPositiveInt(prop, "lims.rest.cmoid.deadline.ms", DEFAULT_CMO_ID_DEADLINE_MS);
+        maxAttempts = getPositiveInt(prop, "lims.rest.cmoid.max.attempts", DEFAULT_MAX_ATTEMPTS);
+        retryBackoffMs = getPositiveInt(prop, "lims.rest.cmoid.retry.backoff.ms", DEFAULT_RETRY_BACKOFF_MS);
+        retryMaxBackoffMs = getPositiveInt(prop, "lims.rest.cmoid.retry.max.backoff.ms",
+                DEFAULT_RETRY_MAX_BACKOFF_MS);
+        hedgingEnabled = getBoolean(prop, "lims.rest.cmoid.hedging.enabled", false);
+        hedgingMinDelayMs = getPositiveInt(prop, "lims.rest.cmoid.hedging.min.delay.ms",
+                DEFAULT_HEDGING_MIN_DELAY_MS);
+        circuitBreakerFailureThreshold = getPositiveInt(prop, "lims.rest.circuit.breaker.failure.threshold",
+                DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+        circuitBreakerOpenMs = getPositiveInt(prop, "lims.rest.circuit.breaker.open.ms",
+                DEFAULT_CIRCUIT_BREAKER_OPEN_MS);
+        coalescingEnabled = getBoolean(prop, "lims.rest.cmoid.coalescing.enabled", true);
+        coalescingWindowMs = getPositiveInt(prop, "lims.rest.cmoid.coalescing.window.ms",
+                DEFAULT_COALESCING_WINDOW_MS);
+        cmoIdCacheBypass = getBoolean(prop, "cmoid.cache.bypass", false);
+        deltaRegeneration = getBoolean(prop, "cmoid.delta.enabled", true);
+        fingerprintStoreFile = StringUtils.trimToNull(prop.getProperty("cmoid.delta.fingerprint.store.file"));
+        fingerprintStoreMaxSize = getPositiveInt(prop, "cmoid.delta.fingerprint.store.max.size",
+                DEFAULT_FINGERPRINT_STORE_MAX_SIZE);
+        fingerprintStoreTtlDays = getPositiveInt(prop, "cmoid.delta.fingerprint.store.ttl.days",
+                DEFAULT_FINGERPRINT_STORE_TTL_DAYS);
+        logPayloadMaxChars = getPositiveInt(prop, "cmoid.log.payload.max.chars", DEFAULT_LOG_PAYLOAD_MAX_CHARS);
+        logDebugPayloads = getBoolean(prop, "cmoid.log.debug.payloads", false);
+        maxValidationErrors = getPositiveInt(prop, "cmoid.validation.max.errors", DEFAULT_MAX_VALIDATION_ERRORS);
+        validationErrorsMaxChars = getPositiveInt(prop, "cmoid.validation.errors.max.chars",
+                DEFAULT_VALIDATION_ERRORS_MAX_CHARS);
+        localCmoIdMode = getLocalCmoIdMode(prop.getProperty("cmoid.local.mode"));
+        patientIndexTtlMinutes = getPositiveInt(prop, "cmoid.local.patient.index.ttl.minutes",
+                DEFAULT_PATIENT_INDEX_TTL_MINUTES);
+        bulkQuery = StringUtils.trimToNull(prop.getProperty("cmoid.bulk.query"));
+        bulkRequestId = StringUtils.trimToNull(prop.getProperty("cmoid.bulk.request.id"));
+        bulkDryRun = getBoolean(prop, "cmoid.bulk.dry.run", true);
+        bulkPageSize = getPositiveInt(prop, "cmoid.bulk.page.size", DEFAULT_BULK_PAGE_SIZE);
+        bulkRecordIdRange = getPositiveInt(prop, "cmoid.bulk.record.id.range", DEFAULT_BULK_RECORD_ID_RANGE);
+        bulkCheckpointFile = StringUtils.trimToNull(prop.getProperty("cmoid.bulk.checkpoint.file"));
+        reportDir = StringUtils.defaultIfBlank(prop.getProperty("cmoid.report.dir"), DEFAULT_REPORT_DIR).trim();
+        reportRetentionDays = getPositiveInt(prop, "cmoid.report.retention.days", DEFAULT_REPORT_RETENTION_DAYS);
+        reviewMaxLines = getPositiveInt(prop, "cmoid.review.max.lines", DEFAULT_REVIEW_MAX_LINES);
+        reviewMaxPatients = getPositiveInt(prop, "cmoid.review.max.patients", DEFAULT_REVIEW_MAX_PATIENTS);
+        precomputeEnabled = getBoolean(prop, "cmoid.precompute.enabled", false);
+        precomputeMaxSize = getPositiveInt(prop, "cmoid.precompute.max.size", DEFAULT_PRECOMPUTE_MAX_SIZE);
+        precomputeTtlMinutes = getPositiveInt(prop, "cmoid.precompute.ttl.minutes", DEFAULT_PRECOMPUTE_TTL_MINUTES);
+        precomputeQueueCapacity = getPositiveInt(prop, "cmoid.precompute.queue.capacity",
+                DEFAULT_PRECOMPUTE_QUEUE_CAPACITY);
+    }
+
+    static RegenerationConfig from(Properties prop) {
+        return new RegenerationConfig(prop);
+    }
+
+    private static Profile getProfile(String profileName) {
+        try {
+            return Profile.fromString(profileName);
+        } catch (Exception e) {
+            return DEFAULT_PROFILE;
+        }
+    }
+
+    private static LocalCmoIdMode getLocalCmoIdMode(String modeName) {
+        if (StringUtils.isBlank(modeName))
+            return LocalCmoIdMode.OFF;
+
+        return LocalCmoIdMode.fromString(modeName.trim());
+    }
+
+    static boolean getBoolean(Properties prop, String name, boolean defaultValue) {
+        String value = prop.getProperty(name);
+        if (StringUtils.isBlank(value))
+            return defaultValue;
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    static int getPositiveInt(Properties prop, String name, int defaultValue) {
+        String value = prop.getProperty(name);
+        if (StringUtils.isBlank(value))
+            return defaultValue;
+
+        try {
+            int intValue = Integer.parseInt(value.trim());
+            if (intValue <= 0)
+                throw new RuntimeException(format("Property %s has to be positive, but was: %s", name, value));
+            return intValue;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(format("Property %s is not a valid number: %s", name, value), e);
+        }
+    }
+
+    public String getLimsRestUrl() {
+        return limsRestUrl;
+    }
+
+    public String getLimsRestUsername() {
+        return limsRestUsername;
+    }
+
+    public String getLimsRestPassword() {
+        return limsRestPassword;
+    }
+
+    public String getCmoIdEndpoint() {
+        return cmoIdEndpoint;
+    }
+
+    public String getCmoIdUrl() {
+        return format("%s/%s", limsRestUrl, cmoIdEndpoint);
+    }
+
+    public String getProfileName() {
+        return profileName;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return true if profile property doesn't name any known profile and default one is used instead
+     */
+    public boolean isDefaultProfileFallback() {
+        return !profile.toString().equals(profileName);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public int getConnectionRequestTimeoutMs() {
+        return connectionRequestTimeoutMs;
+    }
+
+    public int getKeepAliveMs() {
+        return keepAliveMs;
+    }
+
+    public int getIdleConnectionEvictionMs() {
+        return idleConnectionEvictionMs;
+    }
+
+    public boolean isGzipRequest() {
+        return gzipRequest;
+    }
+
+    /**
+     * @return true if binary Smile format should be used when LimsRest supports it
+     */
+    public boolean isSmileEnabled() {
+        return smileEnabled;
+    }
+
+    /**
+     * @return time budget of all LimsRest calls of one run including retries
+     */
+    public int getCmoIdDeadlineMs() {
+        return cmoIdDeadlineMs;
+    }
+
+    /**
+     * @return max number of attempts to retrieve CMO Sample Ids of one chunk, first one included
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public int getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public int getRetryMaxBackoffMs() {
+        return retryMaxBackoffMs;
+    }
+
+    /**
+     * @return true if duplicate request should be sent when first one doesn't respond within its usual (p95) time
+     */
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    public int getHedgingMinDelayMs() {
+        return hedgingMinDelayMs;
+    }
+
+    /**
+     * @return number of consecutive failed LimsRest calls after which LimsRest is not called until circuit breaker
+     * closes again
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public int getCircuitBreakerOpenMs() {
+        return circuitBreakerOpenMs;
+    }
+
+    /**
+     * @return true if concurrent runs should share in-flight CMO Sample Id lookups and merge them into bulk calls
+     */
+    public boolean isCoalescingEnabled() {
+        return coalescingEnabled;
+    }
+
+    /**
+     * @return time lookups of concurrent runs are collected before they're sent as one bulk call
+     */
+    public int getCoalescingWindowMs() {
+        return coalescingWindowMs;
+    }
+
+    /**
+     * @return true if fingerprints of last regeneration and precomputed CMO Sample Ids should be ignored and all CMO
+     * Sample Ids retrieved again from LimsRest
+     */
+    public boolean isCmoIdCacheBypass() {
+        return cmoIdCacheBypass;
+    }
+
+    /**
+     * @return true if only samples which CMO Sample Id determining fields changed since last regeneration are sent to
+     * LimsRest
+     */
+    public boolean isDeltaRegeneration() {
+        return deltaRegeneration;
+    }
+
+    /**
+     * @return path of file storing inputs of last regeneration per sample or null if they are kept in memory only
+     */
+    public String getFingerprintStoreFile() {
+        return fingerprintStoreFile;
+    }
+
+    /**
+     * @return max number of samples kept in fingerprint store, least recently used ones are evicted
+     */
+    public int getFingerprintStoreMaxSize() {
+        return fingerprintStoreMaxSize;
+    }
+
+    /**
+     * @return number of days after which sample's fingerprint expires and sample is regenerated again
+     */
+    public int getFingerprintStoreTtlDays() {
+        return fingerprintStoreTtlDays;
+    }
+
+    /**
+     * @return max length of run summary logged after every regeneration
+     */
+    public int getLogPayloadMaxChars() {
+        return logPayloadMaxChars;
+    }
+
+    /**
+     * @return true if full request and response payloads should be logged
+     */
+    public boolean isLogDebugPayloads() {
+        return logDebugPayloads;
+    }
+
+    /**
+     * @return number of validation errors after which remaining records are not validated
+     */
+    public int getMaxValidationErrors() {
+        return maxValidationErrors;
+    }
+
+    /**
+     * @return max length of validation errors shown to user
+     */
+    public int getValidationErrorsMaxChars() {
+        return validationErrorsMaxChars;
+    }
+
+    /**
+     * @return whether CMO Sample Ids are computed locally and whether they're only compared with LimsRest ones or used
+     */
+    public LocalCmoIdMode getLocalCmoIdMode() {
+        return localCmoIdMode;
+    }
+
+    /**
+     * @return time after which existing CMO Sample Ids of patient are loaded from LIMS again
+     */
+    public int getPatientIndexTtlMinutes() {
+        return patientIndexTtlMinutes;
+    }
+
+    /**
+     * @return where clause selecting Sample CMO Info Records for bulk regeneration or null if request id is used
+     */
+    public String getBulkQuery() {
+        return bulkQuery;
+    }
+
+    public String getBulkRequestId() {
+        return bulkRequestId;
+    }
+
+    /**
+     * @return true if bulk regeneration should only report CMO Sample Id changes without saving them
+     */
+    public boolean isBulkDryRun() {
+        return bulkDryRun;
+    }
+
+    public int getBulkPageSize() {
+        return bulkPageSize;
+    }
+
+    /**
+     * @return width of first record id range queried by bulk regeneration, next ones adapt to density of records
+     */
+    public int getBulkRecordIdRange() {
+        return bulkRecordIdRange;
+    }
+
+    /**
+     * @return path of bulk regeneration checkpoint file or null if interrupted run can't be resumed
+     */
+    public String getBulkCheckpointFile() {
+        return bulkCheckpointFile;
+    }
+
+    /**
+     * @return directory of CMO Sample Id changes reports of workflow and bulk runs
+     */
+    public String getReportDir() {
+        return reportDir;
+    }
+
+    /**
+     * @return number of days after which reports are deleted from report directory
+     */
+    public int getReportRetentionDays() {
+        return reportRetentionDays;
+    }
+
+    /**
+     * @return max number of individual CMO Sample Id changes shown in dialog, all of them are in report
+     */
+    public int getReviewMaxLines() {
+        return reviewMaxLines;
+    }
+
+    /**
+     * @return max number of patients which changes counts are shown in dialog
+     */
+    public int getReviewMaxPatients() {
+        return reviewMaxPatients;
+    }
+
+    /**
+     * @return true if CMO Sample Ids of saved Sample CMO Info Records should be computed in background, off by
+     * default because on save registration of {@link CmoIdPrecomputationPlugin} isn't verified against LIMS yet
+     */
+    public boolean isPrecomputeEnabled() {
+        return precomputeEnabled;
+    }
+
+    public int getPrecomputeMaxSize() {
+        return precomputeMaxSize;
+    }
+
+    public int getPrecomputeTtlMinutes() {
+        return precomputeTtlMinutes;
+    }
+
+    /**
+     * @return max number of saves waiting for precomputation, later saves are computed at submit
+     */
+    public int getPrecomputeQueueCapacity() {
+        return precomputeQueueCapacity;
+    }
+}
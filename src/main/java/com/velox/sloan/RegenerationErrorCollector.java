@@ -0,0 +1,68 @@
+package com.velox.sloan;
+
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Validation errors of one regeneration run by igo id. The same error of sample is kept once. Once configured number
+ * of errors is collected limit is reached so that validation of remaining samples can be skipped, run fails anyway.
+ */
+class RegenerationErrorCollector {
+    private final int maxErrors;
+    private final Map<String, Set<String>> igoId2Errors = new TreeMap<>();
+    private int errors;
+    private int droppedErrors;
+
+    RegenerationErrorCollector(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    synchronized void add(String igoId, String error) {
+        if (errors >= maxErrors) {
+            droppedErrors++;
+            return;
+        }
+
+        if (igoId2Errors.computeIfAbsent(Objects.toString(igoId, "unknown sample"), id -> new LinkedHashSet<>())
+                .add(Objects.toString(error, "unknown error")))
+            errors++;
+    }
+
+    synchronized boolean isLimitReached() {
+        return errors >= maxErrors;
+    }
+
+    synchronized boolean isEmpty() {
+        return errors == 0;
+    }
+
+    synchronized int size() {
+        return errors;
+    }
+
+    synchronized int getSamples() {
+        return igoId2Errors.size();
+    }
+
+    /**
+     * @return errors grouped by sample capped to given length
+     */
+    synchronized String render(int maxChars) {
+        StringBuilder rendered = new StringBuilder();
+        for (Map.Entry<String, Set<String>> igoIdToErrors : igoId2Errors.entrySet()) {
+            rendered.append(igoIdToErrors.getKey()).append(":\n");
+            for (String error : igoIdToErrors.getValue())
+                rendered.append("\t- ").append(error).append("\n");
+
+            if (rendered.length() > maxChars)
+                break;
+        }
+
+        if (isLimitReached())
+            rendered.append(format("Validation stopped after %d errors%s\n", errors, droppedErrors > 0 ? format(", %d" +
+                    " more errors not collected", droppedErrors) : ""));
+
+        return RegenerationRunSummary.truncate(rendered.toString(), maxChars);
+    }
+}
@@ -0,0 +1,103 @@
+package com.velox.sloan;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structured summary of one CMO Sample Id regeneration run: counters, phase timings and changed CMO Sample Ids. It's
+ * logged once per run as single line capped to configured size instead of logging payloads of every step.
+ */
+class RegenerationRunSummary {
+    static final String TRUNCATION_MARKER = "...(truncated)";
+    static final int MAX_CHANGED_IDS = 1_000;
+
+    static final String RECORDS = "records";
+    static final String VALIDATION_ERRORS = "validationErrors";
+    static final String LIMS_CALLS = "limsCalls";
+    static final String LIMS_REST_REQUESTS = "limsRestRequests";
+    static final String LIMS_REST_BYTES_SENT = "limsRestBytesSent";
+    static final String LIMS_REST_BYTES_RECEIVED = "limsRestBytesReceived";
+    static final String UPDATED = "updated";
+    static final String UNCHANGED = "unchanged";
+    static final String CHANGED_INPUTS = "changedInputs";
+    static final String PRECOMPUTED_HITS = "precomputedHits";
+    static final String SENT_TO_LIMS_REST = "sentToLimsRest";
+
+    /**
+     * Time spent waiting for user to accept changes, it's not part of processing time.
+     */
+    static final String REVIEW_PHASE = "review";
+
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private final Map<String, Long> phase2Millis = new LinkedHashMap<>();
+    private final List<String> changedIds = new ArrayList<>();
+    private int changedIdsCount;
+    private final long startNanos = System.nanoTime();
+
+    synchronized void count(String counter, long value) {
+        counters.merge(counter, value, Long::sum);
+    }
+
+    synchronized long getCount(String counter) {
+        return counters.getOrDefault(counter, 0L);
+    }
+
+    long startPhase() {
+        return System.nanoTime();
+    }
+
+    synchronized void endPhase(String phase, long phaseStartNanos) {
+        phase2Millis.merge(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStartNanos), Long::sum);
+    }
+
+    synchronized Map<String, Long> getPhaseMillis() {
+        return new LinkedHashMap<>(phase2Millis);
+    }
+
+    /**
+     * Only first changed ids are kept, log line is capped anyway.
+     */
+    synchronized void addChangedId(String currentCmoId, String newCmoId) {
+        changedIdsCount++;
+        if (changedIds.size() < MAX_CHANGED_IDS)
+            changedIds.add(currentCmoId + " -> " + newCmoId);
+    }
+
+    long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return time of whole run except of time spent waiting for user
+     */
+    synchronized long getProcessingMillis() {
+        return getTotalMillis() - phase2Millis.getOrDefault(REVIEW_PHASE, 0L);
+    }
+
+    synchronized String toLogLine(int maxChars) {
+        StringBuilder line = new StringBuilder("CMO Sample Id regeneration summary: processing=")
+                .append(getProcessingMillis()).append("ms, total=").append(getTotalMillis()).append("ms");
+
+        for (Map.Entry<String, Long> counter : counters.entrySet())
+            line.append(", ").append(counter.getKey()).append("=").append(counter.getValue());
+
+        line.append("; timings:");
+        for (Map.Entry<String, Long> phase : phase2Millis.entrySet())
+            line.append(" ").append(phase.getKey()).append("=").append(phase.getValue()).append("ms");
+
+        line.append("; changed ids (").append(changedIdsCount).append("): ").append(String.join(", ",
+                changedIds));
+
+        return truncate(line.toString(), maxChars);
+    }
+
+    static String truncate(String value, int maxChars) {
+        if (value == null || value.length() <= maxChars)
+            return value;
+
+        return value.substring(0, maxChars) + TRUNCATION_MARKER;
+    }
+}
@@ -0,0 +1,95 @@
+package com.velox.sloan;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of Sample CMO Info Record fields needed to validate record and regenerate CMO Sample Id. All
+ * fields are loaded from LIMS at once instead of reading every field with separate remote call.
+ */
+class SampleCmoInfoFields {
+    static final String DATA_TYPE_NAME = "SampleCMOInfoRecords";
+
+    static final String SAMPLE_ID = "SampleId";
+    static final String CMO_PATIENT_ID = "CmoPatientId";
+    static final String USER_SAMPLE_ID = "UserSampleID";
+    static final String CORRECTED_CMO_ID = "CorrectedCMOID";
+    static final String CMO_SAMPLE_CLASS = "CMOSampleClass";
+    static final String SAMPLE_ORIGIN = "SampleOrigin";
+    static final String SPECIMEN_TYPE = "SpecimenType";
+    static final String REQUEST_ID = "RequestId";
+
+    private final String igoId;
+    private final String cmoPatientId;
+    private final String userSampleId;
+    private final String correctedCmoId;
+    private final String cmoSampleClass;
+    private final String sampleOrigin;
+    private final String specimenType;
+    private final String requestId;
+
+    private SampleCmoInfoFields(Map<String, Object> fields) {
+        igoId = getString(fields, SAMPLE_ID);
+        cmoPatientId = getString(fields, CMO_PATIENT_ID);
+        userSampleId = getString(fields, USER_SAMPLE_ID);
+        correctedCmoId = getString(fields, CORRECTED_CMO_ID);
+        cmoSampleClass = getString(fields, CMO_SAMPLE_CLASS);
+        sampleOrigin = getString(fields, SAMPLE_ORIGIN);
+        specimenType = getString(fields, SPECIMEN_TYPE);
+        requestId = getString(fields, REQUEST_ID);
+    }
+
+    static SampleCmoInfoFields from(Map<String, Object> fields) {
+        return new SampleCmoInfoFields(fields);
+    }
+
+    private static String getString(Map<String, Object> fields, String fieldName) {
+        Object value = fields.get(fieldName);
+        return value == null ? null : Objects.toString(value);
+    }
+
+    public String getIgoId() {
+        return igoId;
+    }
+
+    public String getCmoPatientId() {
+        return cmoPatientId;
+    }
+
+    public String getUserSampleId() {
+        return userSampleId;
+    }
+
+    public String getCorrectedCmoId() {
+        return correctedCmoId;
+    }
+
+    public String getCmoSampleClass() {
+        return cmoSampleClass;
+    }
+
+    public String getSampleOrigin() {
+        return sampleOrigin;
+    }
+
+    public String getSpecimenType() {
+        return specimenType;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public String toString() {
+        return "SampleCmoInfoFields{" +
+                "igoId='" + igoId + '\'' +
+                ", cmoPatientId='" + cmoPatientId + '\'' +
+                ", correctedCmoId='" + correctedCmoId + '\'' +
+                ", cmoSampleClass='" + cmoSampleClass + '\'' +
+                ", sampleOrigin='" + sampleOrigin + '\'' +
+                ", specimenType='" + specimenType + '\'' +
+                ", requestId='" + requestId + '\'' +
+                '}';
+    }
+}
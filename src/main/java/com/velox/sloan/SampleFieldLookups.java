@@ -0,0 +1,23 @@
+package com.velox.sloan;
+
+import org.mskcc.domain.sample.*;
+
+/**
+ * Lookup tables of Sample CMO Info and parent Sample field values to {@code org.mskcc.domain.sample} enums shared by
+ * all runs in JVM.
+ */
+final class SampleFieldLookups {
+    static final EnumLookup<SpecimenType> SPECIMEN_TYPE = new EnumLookup<>("Specimen Type", SpecimenType.values(),
+            SpecimenType::getValue);
+    static final EnumLookup<SampleClass> SAMPLE_CLASS = new EnumLookup<>("Sample Class", SampleClass.values(),
+            SampleClass::getValue);
+    static final EnumLookup<SampleOrigin> SAMPLE_ORIGIN = new EnumLookup<>("Sample Origin", SampleOrigin.values(),
+            SampleOrigin::getValue);
+    static final EnumLookup<SampleType> SAMPLE_TYPE = new EnumLookup<>("Sample Type", SampleType.values(),
+            SampleType::toString);
+    static final EnumLookup<NucleicAcid> NUCLEIC_ACID = new EnumLookup<>("Nucleic Acid", NucleicAcid.values(),
+            NucleicAcid::getValue);
+
+    private SampleFieldLookups() {
+    }
+}
@@ -0,0 +1,86 @@
+package com.velox.sloan;
+
+import org.apache.commons.lang3.StringUtils;
+import org.mskcc.domain.sample.SpecimenType;
+
+import java.util.*;
+
+/**
+ * Validation rules of Sample CMO Info Record declared per Specimen Type. Rules only check already parsed values and
+ * report problems to error collector, they don't throw exceptions.
+ */
+final class SampleValidationRules {
+    private static final Rule REQUEST_ID_REQUIRED = (fields, parsed, errors) -> {
+        if (StringUtils.isEmpty(fields.getRequestId()))
+            errors.add(fields.getIgoId(), "Request is id empty");
+    };
+
+    private static final Rule CMO_PATIENT_ID_REQUIRED = (fields, parsed, errors) -> {
+        if (StringUtils.isEmpty(fields.getCmoPatientId()))
+            errors.add(fields.getIgoId(), "Cmo Patient id is empty");
+    };
+
+    private static final Rule VALID_SAMPLE_CLASS = (fields, parsed, errors) -> addIfInvalid(fields, parsed
+            .getSampleClass(), errors);
+
+    private static final Rule VALID_SAMPLE_ORIGIN = (fields, parsed, errors) -> addIfInvalid(fields, parsed
+            .getSampleOrigin(), errors);
+
+    private static final Rule VALID_PARENT_SAMPLE_TYPE = (fields, parsed, errors) -> {
+        if (!parsed.hasParentSample())
+            errors.add(fields.getIgoId(), parsed.getParentSampleError());
+        else if (parsed.getSampleType().isEmpty())
+            errors.add(fields.getIgoId(), "Sample Type of parent sample is empty");
+        else
+            addIfInvalid(fields, parsed.getSampleType(), errors);
+    };
+
+    private static final List<Rule> DEFAULT_RULES = Collections.unmodifiableList(Arrays.asList(
+            CMO_PATIENT_ID_REQUIRED,
+            VALID_SAMPLE_CLASS,
+            VALID_SAMPLE_ORIGIN,
+            VALID_PARENT_SAMPLE_TYPE));
+
+    private static final Map<SpecimenType, List<Rule>> SPECIMEN_TYPE_RULES = createSpecimenTypeRules();
+
+    private SampleValidationRules() {
+    }
+
+    private static Map<SpecimenType, List<Rule>> createSpecimenTypeRules() {
+        Map<SpecimenType, List<Rule>> specimenType2Rules = new EnumMap<>(SpecimenType.class);
+        specimenType2Rules.put(SpecimenType.CELLLINE, Collections.singletonList(REQUEST_ID_REQUIRED));
+
+        return Collections.unmodifiableMap(specimenType2Rules);
+    }
+
+    /**
+     * Validates record which Specimen Type is valid. Records without or with invalid Specimen Type are reported
+     * without running any rules.
+     */
+    static void validate(SampleCmoInfoFields fields, ParsedSampleFields parsed, RegenerationErrorCollector errors) {
+        EnumLookup.Result<SpecimenType> specimenType = parsed.getSpecimenType();
+        if (specimenType.isEmpty()) {
+            errors.add(fields.getIgoId(), "Specimen Type is empty");
+            return;
+        }
+
+        if (!specimenType.isValid()) {
+            errors.add(fields.getIgoId(), specimenType.getError());
+            return;
+        }
+
+        for (Rule rule : SPECIMEN_TYPE_RULES.getOrDefault(specimenType.getValue(), DEFAULT_RULES))
+            rule.validate(fields, parsed, errors);
+    }
+
+    private static void addIfInvalid(SampleCmoInfoFields fields, EnumLookup.Result<?> result,
+                                     RegenerationErrorCollector errors) {
+        if (!result.isValid())
+            errors.add(fields.getIgoId(), result.getError());
+    }
+
+    @FunctionalInterface
+    interface Rule {
+        void validate(SampleCmoInfoFields fields, ParsedSampleFields parsed, RegenerationErrorCollector errors);
+    }
+}
@@ -0,0 +1,187 @@
+package com.velox.sloan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CmoIdRequestCoalescerTest {
+    private static final long LATENCY_MILLIS = 400;
+    private static final long WINDOW_MILLIS = 100;
+    private static final long REGISTRATION_MILLIS = 50;
+
+    private StubLimsRestServer limsRest;
+    private CmoIdRequestCoalescer coalescer;
+    private ExecutorService runs;
+
+    @Before
+    public void setUp() throws Exception {
+        limsRest = new StubLimsRestServer(LATENCY_MILLIS);
+        runs = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        if (coalescer != null)
+            coalescer.close();
+        runs.shutdownNow();
+        limsRest.close();
+    }
+
+    @Test
+    public void whenRunsStartWithinWindow_shouldMergeTheirLookupsIntoOneRequest() throws Exception {
+        coalescer = getCoalescer();
+        Future<Map<String, String>> inFlightRun = startRun(getRecords("C-RUNA", 1, "1"));
+        Thread.sleep(REGISTRATION_MILLIS);
+
+        List<CmoInfoRecord> firstRecords = getRecords("C-RUNB", 2, "1");
+        List<CmoInfoRecord> secondRecords = getRecords("C-RUNC", 2, "1");
+        Future<Map<String, String>> firstRun = startRun(firstRecords);
+        Future<Map<String, String>> secondRun = startRun(secondRecords);
+
+        assertThat(inFlightRun.get().size(), is(1));
+        assertThat(firstRun.get().keySet(), is(getIgoIds(firstRecords)));
+        assertThat(secondRun.get().keySet(), is(getIgoIds(secondRecords)));
+        assertThat(limsRest.getRequests(), is(2L));
+        assertThat(getReceivedRequests(), hasItem(getIgoIds(firstRecords, secondRecords)));
+    }
+
+    @Test
+    public void whenRunNeedsLookupAlreadyInFlight_shouldJoinItInsteadOfSendingItAgain() throws Exception {
+        coalescer = getCoalescer();
+        List<CmoInfoRecord> inFlightRecords = getRecords("C-RUNA", 1, "1");
+        Future<Map<String, String>> inFlightRun = startRun(inFlightRecords);
+        Thread.sleep(REGISTRATION_MILLIS);
+
+        List<CmoInfoRecord> records = new ArrayList<>(getRecords("C-RUNA", 1, "1"));
+        records.addAll(getRecords("C-RUNB", 1, "1"));
+        RegenerationRunSummary runSummary = new RegenerationRunSummary();
+        Future<Map<String, String>> joiningRun = startRun(records, runSummary);
+
+        assertThat(inFlightRun.get().size(), is(1));
+        assertThat(joiningRun.get().keySet(), is(getIgoIds(records)));
+        assertThat(runSummary.getCount("limsRestCoalesced"), is(1L));
+        assertThat(limsRest.getRequests(), is(2L));
+        assertThat(getReceivedRequests(), hasItem(getIgoIds(getRecords("C-RUNB", 1, "1"))));
+    }
+
+    @Test
+    public void whenSampleOfPatientConflictsWithOpenBatch_shouldSendAllSamplesOfPatientInRunsOwnBatch() throws
+            Exception {
+        coalescer = getCoalescer();
+        Future<Map<String, String>> inFlightRun = startRun(getRecords("C-RUNA", 1, "1"));
+        Thread.sleep(REGISTRATION_MILLIS);
+
+        List<CmoInfoRecord> openBatchRecords = getRecords("C-PAT", 2, "1");
+        Future<Map<String, String>> openBatchRun = startRun(openBatchRecords);
+        Thread.sleep(REGISTRATION_MILLIS);
+
+        List<CmoInfoRecord> conflictingRecords = new ArrayList<>(getRecords("C-PAT", 2, "2").subList(1, 2));
+        conflictingRecords.add(getRecord("C-PAT_3", "C-PAT", "1"));
+        Future<Map<String, String>> conflictingRun = startRun(conflictingRecords);
+
+        assertThat(inFlightRun.get().size(), is(1));
+        assertThat(openBatchRun.get().keySet(), is(getIgoIds(openBatchRecords)));
+        assertThat(conflictingRun.get().keySet(), is(getIgoIds(conflictingRecords)));
+        assertThat(limsRest.getRequests(), is(3L));
+        assertThat(getReceivedRequests(), hasItem(getIgoIds(openBatchRecords)));
+        assertThat(getReceivedRequests(), hasItem(getIgoIds(conflictingRecords)));
+    }
+
+    @Test
+    public void whenMergedRequestFails_shouldRetryEveryRunAndFailOnlyRunWhichRetryFails() throws Exception {
+        limsRest.setFailEvery(2);
+        coalescer = getCoalescer("lims.rest.cmoid.max.attempts", "1");
+        Future<Map<String, String>> inFlightRun = startRun(getRecords("C-RUNA", 1, "1"));
+        Thread.sleep(REGISTRATION_MILLIS);
+
+        List<Future<Map<String, String>>> mergedRuns = Arrays.asList(startRun(getRecords("C-RUNB", 2, "1")),
+                startRun(getRecords("C-RUNC", 2, "1")));
+
+        int failed = 0;
+        for (Future<Map<String, String>> mergedRun : mergedRuns) {
+            try {
+                assertThat(mergedRun.get().size(), is(2));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("failed within time budget"));
+                failed++;
+            }
+        }
+
+        assertThat(inFlightRun.get().size(), is(1));
+        assertThat(failed, is(1));
+        assertThat(limsRest.getRequests(), is(4L));
+    }
+
+    private CmoIdRequestCoalescer getCoalescer(String... overrides) throws Exception {
+        Properties prop = new Properties();
+        prop.setProperty("lims.rest.cmoid.coalescing.window.ms", String.valueOf(WINDOW_MILLIS));
+        for (int i = 0; i < overrides.length; i += 2)
+            prop.setProperty(overrides[i], overrides[i + 1]);
+
+        LimsRestClientHolder limsRestClient = LimsRestClientHolder.get(limsRest.writePropertiesFile(prop).getPath());
+
+        return new CmoIdRequestCoalescer(limsRestClient.getCmoIdClient(), limsRestClient.getConfig());
+    }
+
+    private Future<Map<String, String>> startRun(List<CmoInfoRecord> records) {
+        return startRun(records, new RegenerationRunSummary());
+    }
+
+    private Future<Map<String, String>> startRun(List<CmoInfoRecord> records, RegenerationRunSummary runSummary) {
+        return runs.submit(() -> {
+            Map<String, String> igoId2CmoId = new ConcurrentHashMap<>();
+            coalescer.getCmoIds(records, igoId2CmoId::put, runSummary);
+            return igoId2CmoId;
+        });
+    }
+
+    private Set<Set<String>> getReceivedRequests() {
+        Set<Set<String>> requests = new HashSet<>();
+        for (List<String> requestIgoIds : limsRest.getReceivedIgoIds())
+            requests.add(new HashSet<>(requestIgoIds));
+
+        return requests;
+    }
+
+    private static List<CmoInfoRecord> getRecords(String patientId, int samples, String inputFingerprint) {
+        List<CmoInfoRecord> records = new ArrayList<>();
+        for (int i = 0; i < samples; i++)
+            records.add(getRecord(String.format("%s_%d", patientId, i + 1), patientId, inputFingerprint));
+
+        return records;
+    }
+
+    private static CmoInfoRecord getRecord(String igoId, String patientId, String inputFingerprint) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(SampleCmoInfoFields.SAMPLE_ID, igoId);
+        fields.put(SampleCmoInfoFields.CMO_PATIENT_ID, patientId);
+        CmoInfoRecord cmoInfoRecord = new CmoInfoRecord(null, SampleCmoInfoFields.from(fields));
+        cmoInfoRecord.setInputFingerprint(inputFingerprint);
+
+        CorrectedCmoSampleView view = new CorrectedCmoSampleView(igoId);
+        view.setPatientId(patientId);
+        cmoInfoRecord.setCorrectedCmoSampleView(view);
+
+        return cmoInfoRecord;
+    }
+
+    @SafeVarargs
+    private static Set<String> getIgoIds(List<CmoInfoRecord>... recordLists) {
+        Set<String> igoIds = new HashSet<>();
+        for (List<CmoInfoRecord> records : recordLists) {
+            for (CmoInfoRecord cmoInfoRecord : records)
+                igoIds.add(cmoInfoRecord.getFields().getIgoId());
+        }
+
+        return igoIds;
+    }
+}
@@ -0,0 +1,179 @@
+package com.velox.sloan;
+
+import com.velox.api.datarecord.DataRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CmoSampleIdRegeneratorTest {
+    private StubLimsRestServer limsRest;
+    private FakeLims fakeLims;
+    private LimsRestClientHolder limsRestClient;
+
+    @Before
+    public void setUp() throws Exception {
+        limsRest = new StubLimsRestServer(0);
+        File propertiesFile = limsRest.writePropertiesFile(new Properties());
+        limsRestClient = LimsRestClientHolder.get(propertiesFile.getPath());
+        fakeLims = new FakeLims(0);
+    }
+
+    @After
+    public void tearDown() {
+        limsRest.close();
+    }
+
+    @Test
+    public void whenSomeCmoIdsChange_shouldSaveOnlyChangedOnesWithOneBulkUpdate() throws Exception {
+        List<DataRecord> records = fakeLims.createSampleCmoInfoRecords(10);
+        CmoSampleIdRegenerator regenerator = newRegenerator();
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(records);
+
+        int i = 0;
+        for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values())
+            cmoInfoRecord.setNewCmoId(i++ % 2 == 0 ? cmoInfoRecord.getCurrentCmoId() + "-new" : cmoInfoRecord
+                    .getCurrentCmoId());
+
+        regenerator.updateCmoIds(igoId2CmoInfoRecords);
+
+        assertThat(fakeLims.getCalls("setFieldsForRecords"), is(1L));
+        assertThat(fakeLims.getCalls("setDataField"), is(0L));
+        assertThat(regenerator.getRunSummary().getCount(RegenerationRunSummary.UPDATED), is(5L));
+
+        List<Map<String, Object>> savedFields = fakeLims.getDataRecordManager().getFieldsForRecords(records, null);
+        for (Map<String, Object> fields : savedFields) {
+            CmoInfoRecord cmoInfoRecord = igoId2CmoInfoRecords.get(fields.get(SampleCmoInfoFields.SAMPLE_ID));
+            assertThat(fields.get(SampleCmoInfoFields.CORRECTED_CMO_ID), is(cmoInfoRecord.getNewCmoId()));
+        }
+    }
+
+    @Test
+    public void whenNoCmoIdChanges_shouldNotCallLims() throws Exception {
+        List<DataRecord> records = fakeLims.createSampleCmoInfoRecords(10);
+        CmoSampleIdRegenerator regenerator = newRegenerator();
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(records);
+
+        for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values())
+            cmoInfoRecord.setNewCmoId(cmoInfoRecord.getCurrentCmoId());
+
+        regenerator.updateCmoIds(igoId2CmoInfoRecords);
+
+        assertThat(fakeLims.getCalls("setFieldsForRecords"), is(0L));
+        assertThat(fakeLims.getCalls("setDataField"), is(0L));
+    }
+
+    @Test
+    public void whenAuthoritativeEngineCannotResolveSampleOfPatient_shouldSendWholePatientToLimsRest() throws
+            Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("cmoid.local.mode", "authoritative");
+        LimsRestClientHolder authoritativeClient = LimsRestClientHolder.get(limsRest.writePropertiesFile(overrides)
+                .getPath());
+        List<DataRecord> records = fakeLims.createSampleCmoInfoRecords(10);
+        for (int i = 0; i < records.size(); i++) {
+            String patientId = String.format("C-AUTH%03d", i / 5);
+            fakeLims.setField(records.get(i), SampleCmoInfoFields.CMO_PATIENT_ID, patientId);
+            fakeLims.setField(records.get(i), SampleCmoInfoFields.CORRECTED_CMO_ID, String.format("%s-P%03d-d",
+                    patientId, i % 5 + 1));
+        }
+        fakeLims.setField(records.get(7), SampleCmoInfoFields.CMO_SAMPLE_CLASS, "");
+
+        CmoSampleIdRegenerator regenerator = new CmoSampleIdRegenerator(fakeLims.getDataRecordManager(), null,
+                authoritativeClient, message -> {
+        });
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(records);
+        regenerator.fillInNewCmoSampleIds(igoId2CmoInfoRecords);
+
+        Set<String> sentIgoIds = new TreeSet<>();
+        for (List<String> requestIgoIds : limsRest.getReceivedIgoIds())
+            sentIgoIds.addAll(requestIgoIds);
+        assertThat(sentIgoIds, is((Set<String>) new TreeSet<>(Arrays.asList("06000_A_10", "06000_A_6",
+                "06000_A_7", "06000_A_8", "06000_A_9"))));
+        for (int i = 1; i <= 5; i++) {
+            CmoInfoRecord cmoInfoRecord = igoId2CmoInfoRecords.get("06000_A_" + i);
+            assertThat(cmoInfoRecord.getNewCmoId(), is(cmoInfoRecord.getCurrentCmoId()));
+        }
+        assertThat(regenerator.getRunSummary().getCount("localUnresolvedPatients"), is(1L));
+    }
+
+    @Test
+    public void whenPrecomputedCmoIdIsSavedForOtherSampleOfPatient_shouldRetrieveWholePatientFromLimsRest() throws
+            Exception {
+        List<DataRecord> records = fakeLims.createSampleCmoInfoRecords(10);
+        LimsRestClientHolder precomputingClient = getPrecomputingClient();
+        CmoSampleIdRegenerator regenerator = new CmoSampleIdRegenerator(fakeLims.getDataRecordManager(), null,
+                precomputingClient, message -> {
+        });
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(Arrays.asList(records.get(0),
+                records.get(1), records.get(5), records.get(6)));
+        precompute(precomputingClient, igoId2CmoInfoRecords, "06000_A_1", "C-PAT0000-P006-d", "06000_A_2",
+                "C-PAT0000-P003-d", "06000_A_6", "C-PAT0001-P006-d", "06000_A_7", "C-PAT0001-P007-d");
+
+        regenerator.fillInNewCmoSampleIds(igoId2CmoInfoRecords);
+
+        assertThat(getSentIgoIds(), is((Set<String>) new TreeSet<>(Arrays.asList("06000_A_1", "06000_A_2"))));
+        assertThat(igoId2CmoInfoRecords.get("06000_A_1").getNewCmoId(), is("C-06000-A-1-d"));
+        assertThat(igoId2CmoInfoRecords.get("06000_A_6").getNewCmoId(), is("C-PAT0001-P006-d"));
+        assertThat(igoId2CmoInfoRecords.get("06000_A_7").getNewCmoId(), is("C-PAT0001-P007-d"));
+        assertThat(regenerator.getRunSummary().getCount(RegenerationRunSummary.PRECOMPUTED_HITS), is(2L));
+        assertThat(regenerator.getRunSummary().getCount("precomputedRejectedPatients"), is(1L));
+    }
+
+    @Test
+    public void whenPrecomputedCmoIdsOfPatientClashOrAreMissing_shouldRetrieveWholePatientFromLimsRest() throws
+            Exception {
+        List<DataRecord> records = fakeLims.createSampleCmoInfoRecords(10);
+        LimsRestClientHolder precomputingClient = getPrecomputingClient();
+        CmoSampleIdRegenerator regenerator = new CmoSampleIdRegenerator(fakeLims.getDataRecordManager(), null,
+                precomputingClient, message -> {
+        });
+        Map<String, CmoInfoRecord> igoId2CmoInfoRecords = regenerator.getCmoInfoRecords(Arrays.asList(records.get(0),
+                records.get(1), records.get(5), records.get(6)));
+        precompute(precomputingClient, igoId2CmoInfoRecords, "06000_A_1", "C-PAT0000-P006-d", "06000_A_2",
+                "C-PAT0000-P006-d", "06000_A_6", "C-PAT0001-P006-d");
+
+        regenerator.fillInNewCmoSampleIds(igoId2CmoInfoRecords);
+
+        assertThat(getSentIgoIds(), is((Set<String>) new TreeSet<>(igoId2CmoInfoRecords.keySet())));
+        for (CmoInfoRecord cmoInfoRecord : igoId2CmoInfoRecords.values())
+            assertThat(cmoInfoRecord.getNewCmoId(), is("C-" + cmoInfoRecord.getFields().getIgoId().replace('_',
+                    '-') + "-d"));
+        assertThat(regenerator.getRunSummary().getCount(RegenerationRunSummary.PRECOMPUTED_HITS), is(0L));
+    }
+
+    private LimsRestClientHolder getPrecomputingClient() throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("cmoid.precompute.enabled", "true");
+
+        return LimsRestClientHolder.get(limsRest.writePropertiesFile(overrides).getPath());
+    }
+
+    private static void precompute(LimsRestClientHolder precomputingClient, Map<String, CmoInfoRecord>
+            igoId2CmoInfoRecords, String... igoIdsAndCmoIds) {
+        Map<String, String> fingerprint2CmoId = new HashMap<>();
+        for (int i = 0; i < igoIdsAndCmoIds.length; i += 2)
+            fingerprint2CmoId.put(igoId2CmoInfoRecords.get(igoIdsAndCmoIds[i]).getInputFingerprint(),
+                    igoIdsAndCmoIds[i + 1]);
+
+        precomputingClient.getCmoIdPrecomputer().getPrecomputedCmoIds().putAll(fingerprint2CmoId);
+    }
+
+    private Set<String> getSentIgoIds() {
+        Set<String> sentIgoIds = new TreeSet<>();
+        for (List<String> requestIgoIds : limsRest.getReceivedIgoIds())
+            sentIgoIds.addAll(requestIgoIds);
+
+        return sentIgoIds;
+    }
+
+    private CmoSampleIdRegenerator newRegenerator() {
+        return new CmoSampleIdRegenerator(fakeLims.getDataRecordManager(), null, limsRestClient, message -> {
+        });
+    }
+}
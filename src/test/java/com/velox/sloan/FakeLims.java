@@ -0,0 +1,214 @@
+package com.velox.sloan;
+
+import com.velox.api.datarecord.DataRecord;
+import com.velox.api.datarecord.DataRecordManager;
+import org.mskcc.domain.sample.Sample;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory LIMS for tests and benchmarks. Data records and data record manager are dynamic proxies answering only
+ * calls used by CMO Sample Id regeneration, every call to data record manager waits configured time to simulate remote
+ * call to Velox server. Calls of every method of records and manager are counted. Queries of Sample CMO Info Records
+ * support only {@code <field> in ('value', ...)} where clause.
+ */
+class FakeLims {
+    private static final Pattern IN_CLAUSE = Pattern.compile("(\\w+) in \\((.*)\\)");
+
+    private final long callLatencyMillis;
+    private final Map<DataRecord, Map<String, Object>> record2Fields = new ConcurrentHashMap<>();
+    private final Map<DataRecord, List<DataRecord>> record2Parents = new ConcurrentHashMap<>();
+    private final List<DataRecord> sampleCmoInfoRecords = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong remoteCalls = new AtomicLong();
+    private final Map<String, AtomicLong> method2Calls = new ConcurrentHashMap<>();
+    private final AtomicLong recordIds = new AtomicLong();
+    private final DataRecordManager dataRecordManager;
+
+    FakeLims(long callLatencyMillis) {
+        this.callLatencyMillis = callLatencyMillis;
+        this.dataRecordManager = (DataRecordManager) Proxy.newProxyInstance(getClass().getClassLoader(), new
+                Class[]{DataRecordManager.class}, new DataRecordManagerHandler());
+    }
+
+    DataRecordManager getDataRecordManager() {
+        return dataRecordManager;
+    }
+
+    long getRemoteCalls() {
+        return remoteCalls.get();
+    }
+
+    /**
+     * @return number of calls of data record or data record manager method with given name
+     */
+    long getCalls(String methodName) {
+        AtomicLong calls = method2Calls.get(methodName);
+        return calls == null ? 0 : calls.get();
+    }
+
+    private void countCall(Method method) {
+        method2Calls.computeIfAbsent(method.getName(), name -> new AtomicLong()).incrementAndGet();
+    }
+
+    List<DataRecord> createSampleCmoInfoRecords(int count) {
+        List<DataRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String igoId = String.format("06000_A_%d", i + 1);
+            String patientId = String.format("C-PAT%04d", i / 5);
+
+            Map<String, Object> fields = new HashMap<>();
+            fields.put(SampleCmoInfoFields.SAMPLE_ID, igoId);
+            fields.put(SampleCmoInfoFields.CMO_PATIENT_ID, patientId);
+            fields.put(SampleCmoInfoFields.USER_SAMPLE_ID, "sample_" + (i + 1));
+            fields.put(SampleCmoInfoFields.CORRECTED_CMO_ID, String.format("%s-P%03d-d", patientId, i % 5 + 1));
+            fields.put(SampleCmoInfoFields.CMO_SAMPLE_CLASS, "Primary");
+            fields.put(SampleCmoInfoFields.SAMPLE_ORIGIN, "Tissue");
+            fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, "Biopsy");
+            fields.put(SampleCmoInfoFields.REQUEST_ID, "06000_A");
+            DataRecord record = createRecord(fields);
+
+            Map<String, Object> parentFields = new HashMap<>();
+            parentFields.put(SampleCmoInfoFields.SAMPLE_ID, igoId);
+            parentFields.put(Sample.NATO_EXTRACT, "DNA");
+            parentFields.put(Sample.EXEMPLAR_SAMPLE_TYPE, "DNA");
+            record2Parents.put(record, Collections.singletonList(createRecord(parentFields)));
+
+            records.add(record);
+            sampleCmoInfoRecords.add(record);
+        }
+
+        return records;
+    }
+
+    /**
+     * Creates Sample CMO Info Record without parent sample, e.g. existing sample of patient.
+     */
+    DataRecord createSampleCmoInfoRecord(Map<String, Object> fields) {
+        DataRecord record = createRecord(fields);
+        sampleCmoInfoRecords.add(record);
+
+        return record;
+    }
+
+    /**
+     * Sets field of record directly, without simulated remote call, e.g. to undo changes made by previous run.
+     */
+    void setField(DataRecord record, String field, Object value) {
+        record2Fields.get(record).put(field, value);
+    }
+
+    private DataRecord createRecord(Map<String, Object> fields) {
+        DataRecord record = (DataRecord) Proxy.newProxyInstance(getClass().getClassLoader(), new
+                Class[]{DataRecord.class}, new DataRecordHandler(recordIds.incrementAndGet()));
+        record2Fields.put(record, new ConcurrentHashMap<>(fields));
+
+        return record;
+    }
+
+    private void simulateRemoteCall() {
+        remoteCalls.incrementAndGet();
+        if (callLatencyMillis > 0) {
+            try {
+                Thread.sleep(callLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Object handleObjectMethod(Object proxy, Method method, Object[] args, String name) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return name;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private class DataRecordManagerHandler implements InvocationHandler {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class)
+                return handleObjectMethod(proxy, method, args, "FakeDataRecordManager");
+
+            countCall(method);
+            simulateRemoteCall();
+
+            switch (method.getName()) {
+                case "getFieldsForRecords":
+                    List<Map<String, Object>> fields = new ArrayList<>();
+                    for (DataRecord record : (List<DataRecord>) args[0])
+                        fields.add(new HashMap<>(record2Fields.get(record)));
+                    return fields;
+                case "getParentsOfType":
+                    List<List<DataRecord>> parents = new ArrayList<>();
+                    for (DataRecord record : (List<DataRecord>) args[0])
+                        parents.add(record2Parents.getOrDefault(record, Collections.emptyList()));
+                    return parents;
+                case "queryDataRecords":
+                    return queryDataRecords((String) args[1]);
+                case "setFieldsForRecords":
+                    List<DataRecord> records = (List<DataRecord>) args[0];
+                    List<Map<String, Object>> newFields = (List<Map<String, Object>>) args[1];
+                    for (int i = 0; i < records.size(); i++)
+                        record2Fields.get(records.get(i)).putAll(newFields.get(i));
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private List<DataRecord> queryDataRecords(String whereClause) {
+        Matcher inClause = IN_CLAUSE.matcher(whereClause);
+        if (!inClause.matches())
+            throw new UnsupportedOperationException(whereClause);
+
+        Set<String> values = new HashSet<>();
+        for (String quotedValue : inClause.group(2).split(", "))
+            values.add(quotedValue.substring(1, quotedValue.length() - 1).replace("''", "'"));
+
+        List<DataRecord> records = new ArrayList<>();
+        synchronized (sampleCmoInfoRecords) {
+            for (DataRecord record : sampleCmoInfoRecords) {
+                if (values.contains(Objects.toString(record2Fields.get(record).get(inClause.group(1)))))
+                    records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+    private class DataRecordHandler implements InvocationHandler {
+        private final long recordId;
+
+        private DataRecordHandler(long recordId) {
+            this.recordId = recordId;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class)
+                return handleObjectMethod(proxy, method, args, "FakeDataRecord" + recordId);
+
+            countCall(method);
+            if ("getRecordId".equals(method.getName()))
+                return recordId;
+
+            simulateRemoteCall();
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.velox.sloan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+
+import java.util.*;
+
+import static com.velox.sloan.LimsRestCmoIdClientTest.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class LimsRestCmoIdClientChunkingTest {
+    private static final long LATENCY_MILLIS = 100;
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    private final int patients;
+    private final int samplesPerPatient;
+    private final int chunkSize;
+    private final int expectedRequests;
+
+    private StubLimsRestServer limsRest;
+
+    public LimsRestCmoIdClientChunkingTest(String name, int patients, int samplesPerPatient, int chunkSize, int
+            expectedRequests) {
+        this.patients = patients;
+        this.samplesPerPatient = samplesPerPatient;
+        this.chunkSize = chunkSize;
+        this.expectedRequests = expectedRequests;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{
+                {"one sample", 1, 1, 1, 1},
+                {"one sample per chunk", 8, 1, 1, 8},
+                {"chunks filled exactly", 8, 1, 4, 2},
+                {"last chunk partially filled", 9, 1, 4, 3},
+                {"patients filling chunk exactly", 6, 2, 4, 3},
+                {"patient not fitting into rest of chunk", 5, 2, 3, 5},
+                {"patient larger than chunk", 3, 5, 2, 3},
+                {"more chunks than concurrent requests", 16, 1, 1, 16}
+        });
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        limsRest = new StubLimsRestServer(LATENCY_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        limsRest.close();
+    }
+
+    @Test
+    public void whenViewsAreChunked_shouldSendExpectedRequestsConcurrentlyWithoutSplittingPatient() throws Exception {
+        LimsRestCmoIdClient client = getClient(limsRest, "lims.rest.cmoid.chunk.size", String.valueOf(chunkSize),
+                "lims.rest.cmoid.max.concurrent.requests", String.valueOf(MAX_CONCURRENT_REQUESTS));
+        List<CorrectedCmoSampleView> views = getViews(patients, samplesPerPatient);
+
+        long start = System.currentTimeMillis();
+        Map<String, String> igoId2CmoId = getCmoIds(client, views);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(igoId2CmoId.size(), is(views.size()));
+        assertThat(limsRest.getRequests(), is((long) expectedRequests));
+        assertPatientsNotSplit();
+
+        long waves = (expectedRequests + MAX_CONCURRENT_REQUESTS - 1) / MAX_CONCURRENT_REQUESTS;
+        assertTrue("Elapsed: " + elapsed, elapsed < (waves + 2) * LATENCY_MILLIS);
+    }
+
+    private void assertPatientsNotSplit() {
+        Set<String> patientsSeen = new HashSet<>();
+        for (List<String> requestIgoIds : limsRest.getReceivedIgoIds()) {
+            Set<String> requestPatients = new HashSet<>();
+            for (String igoId : requestIgoIds)
+                requestPatients.add(getPatientId(igoId));
+
+            for (String patientId : requestPatients)
+                assertTrue("Patient in more than one request: " + patientId, patientsSeen.add(patientId));
+        }
+    }
+}
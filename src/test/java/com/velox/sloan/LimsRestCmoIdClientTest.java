@@ -0,0 +1,241 @@
+package com.velox.sloan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mskcc.domain.sample.CorrectedCmoSampleView;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LimsRestCmoIdClientTest {
+    private static final long LATENCY_MILLIS = 200;
+    private static final String JSON = "application/json";
+
+    private StubLimsRestServer limsRest;
+
+    @Before
+    public void setUp() throws Exception {
+        limsRest = new StubLimsRestServer(LATENCY_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        limsRest.close();
+    }
+
+    @Test
+    public void whenPatientsFitIntoChunk_shouldNotSplitAnyPatient() {
+        List<CorrectedCmoSampleView> views = new ArrayList<>();
+        views.addAll(getPatientViews("C-AAAAAA", 2));
+        views.addAll(getPatientViews("C-BBBBBB", 2));
+        views.addAll(getPatientViews("C-CCCCCC", 1));
+
+        List<List<CorrectedCmoSampleView>> chunks = LimsRestCmoIdClient.partitionByPatient(views, 3);
+
+        assertThat(chunks.size(), is(2));
+        assertThat(chunks.get(0).size(), is(2));
+        assertThat(chunks.get(1).size(), is(3));
+    }
+
+    @Test
+    public void whenRequestFailsWithServerError_shouldRetryAndGetAllCmoIds() throws Exception {
+        limsRest.setFailEvery(2);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.chunk.size", "1",
+                "lims.rest.cmoid.max.concurrent.requests", "1", "lims.rest.cmoid.retry.backoff.ms", "10");
+        RegenerationRunSummary runSummary = new RegenerationRunSummary();
+
+        Map<String, String> igoId2CmoId = getCmoIds(client, getViews(3, 1), runSummary);
+
+        assertThat(igoId2CmoId.size(), is(3));
+        assertThat(runSummary.getCount("limsRestRetries"), is(2L));
+        assertThat(limsRest.getRequests(), is(5L));
+    }
+
+    @Test
+    public void whenResponseIsSlowerThanUsual_shouldHedgeAndNotWaitForSlowResponse() throws Exception {
+        long slowLatencyMillis = 10 * LATENCY_MILLIS;
+        limsRest.setSlowEvery(2, slowLatencyMillis);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.hedging.enabled", "true",
+                "lims.rest.cmoid.hedging.min.delay.ms", "50");
+        getCmoIds(client, getViews(1, 1));
+        RegenerationRunSummary runSummary = new RegenerationRunSummary();
+
+        long start = System.currentTimeMillis();
+        Map<String, String> igoId2CmoId = getCmoIds(client, getViews(1, 1), runSummary);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertThat(igoId2CmoId.size(), is(1));
+        assertThat(runSummary.getCount("limsRestHedges"), is(1L));
+        assertTrue("Elapsed: " + elapsed, elapsed < slowLatencyMillis / 2);
+    }
+
+    @Test
+    public void whenConsecutiveCallsFail_shouldOpenCircuitAndFailFastWithoutCallingLimsRest() throws Exception {
+        limsRest.setFailEvery(1);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.max.attempts", "1",
+                "lims.rest.circuit.breaker.failure.threshold", "2", "lims.rest.circuit.breaker.open.ms", "60000");
+        assertCmoIdsFail(client, "failed within time budget");
+        assertCmoIdsFail(client, "failed within time budget");
+
+        assertCmoIdsFail(client, "LimsRest is unavailable");
+
+        assertThat(limsRest.getRequests(), is(2L));
+    }
+
+    @Test
+    public void whenCircuitOpenTimePasses_shouldLetTrialCallThroughAndCloseCircuitOnSuccess() throws Exception {
+        long openMillis = 300;
+        limsRest.setFailEvery(1);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.max.attempts", "1",
+                "lims.rest.circuit.breaker.failure.threshold", "1", "lims.rest.circuit.breaker.open.ms",
+                String.valueOf(openMillis));
+        assertCmoIdsFail(client, "failed within time budget");
+        assertCmoIdsFail(client, "LimsRest is unavailable");
+
+        limsRest.setFailEvery(0);
+        Thread.sleep(openMillis + 50);
+        Map<String, String> igoId2CmoId = getCmoIds(client, getViews(1, 1));
+        getCmoIds(client, getViews(1, 1));
+
+        assertThat(igoId2CmoId.size(), is(1));
+        assertThat(limsRest.getRequests(), is(3L));
+    }
+
+    @Test
+    public void whenTrialCallFails_shouldKeepCircuitOpenForAnotherPeriod() throws Exception {
+        long openMillis = 300;
+        limsRest.setFailEvery(1);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.max.attempts", "1",
+                "lims.rest.circuit.breaker.failure.threshold", "1", "lims.rest.circuit.breaker.open.ms",
+                String.valueOf(openMillis));
+        assertCmoIdsFail(client, "failed within time budget");
+
+        Thread.sleep(openMillis + 50);
+        assertCmoIdsFail(client, "failed within time budget");
+        assertCmoIdsFail(client, "LimsRest is unavailable");
+
+        assertThat(limsRest.getRequests(), is(2L));
+    }
+
+    @Test
+    public void whenCallFailsWithClientError_shouldNotResetConsecutiveFailuresOfCircuit() throws Exception {
+        limsRest.setFailEvery(1);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.max.attempts", "1",
+                "lims.rest.circuit.breaker.failure.threshold", "2", "lims.rest.circuit.breaker.open.ms", "60000");
+        assertCmoIdsFail(client, "failed within time budget");
+
+        limsRest.setFailStatus(400);
+        assertCmoIdsFail(client, "400");
+        limsRest.setFailStatus(503);
+        assertCmoIdsFail(client, "failed within time budget");
+
+        assertCmoIdsFail(client, "LimsRest is unavailable");
+        assertThat(limsRest.getRequests(), is(3L));
+    }
+
+    @Test
+    public void whenLimsRestDoesNotRespondWithinDeadline_shouldFailWhenDeadlinePasses() throws Exception {
+        long deadlineMillis = 500;
+        limsRest.setSlowEvery(1, 20 * LATENCY_MILLIS);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.deadline.ms", String.valueOf(deadlineMillis));
+
+        long start = System.currentTimeMillis();
+        assertCmoIdsFail(client, "time budget of " + deadlineMillis + " ms");
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Elapsed: " + elapsed, elapsed < 2 * deadlineMillis);
+    }
+
+    @Test
+    public void whenLimsRestDoesNotSupportSmile_shouldGetCmoIdsInJson() throws Exception {
+        limsRest.setSmileSupported(false);
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.smile.enabled", "true");
+
+        Map<String, String> igoId2CmoId = getCmoIds(client, getViews(2, 1));
+        igoId2CmoId.putAll(getCmoIds(client, getViews(3, 1)));
+
+        assertThat(igoId2CmoId.size(), is(3));
+        assertThat(limsRest.getRequestContentTypes(), is(Arrays.asList(JSON, JSON)));
+    }
+
+    @Test
+    public void whenLimsRestRejectsSmileRequest_shouldResendItAsJsonAndKeepUsingJson() throws Exception {
+        LimsRestCmoIdClient client = getClient("lims.rest.cmoid.smile.enabled", "true");
+        getCmoIds(client, getViews(1, 1));
+        getCmoIds(client, getViews(1, 1));
+        limsRest.setSmileSupported(false);
+
+        Map<String, String> igoId2CmoId = getCmoIds(client, getViews(2, 1));
+        getCmoIds(client, getViews(1, 1));
+
+        assertThat(igoId2CmoId.size(), is(2));
+        assertThat(limsRest.getRequestContentTypes(), is(Arrays.asList(JSON, StubLimsRestServer.SMILE_CONTENT_TYPE,
+                StubLimsRestServer.SMILE_CONTENT_TYPE, JSON, JSON)));
+    }
+
+    private LimsRestCmoIdClient getClient(String... overrides) throws Exception {
+        return getClient(limsRest, overrides);
+    }
+
+    static LimsRestCmoIdClient getClient(StubLimsRestServer limsRest, String... overrides) throws Exception {
+        Properties prop = new Properties();
+        for (int i = 0; i < overrides.length; i += 2)
+            prop.setProperty(overrides[i], overrides[i + 1]);
+
+        File propertiesFile = limsRest.writePropertiesFile(prop);
+
+        return LimsRestClientHolder.get(propertiesFile.getPath()).getCmoIdClient();
+    }
+
+    static Map<String, String> getCmoIds(LimsRestCmoIdClient client, List<CorrectedCmoSampleView> views) {
+        return getCmoIds(client, views, new RegenerationRunSummary());
+    }
+
+    static Map<String, String> getCmoIds(LimsRestCmoIdClient client, List<CorrectedCmoSampleView> views,
+                                         RegenerationRunSummary runSummary) {
+        Map<String, String> igoId2CmoId = new ConcurrentHashMap<>();
+        client.getCmoIds(views, igoId2CmoId::put, runSummary);
+
+        return igoId2CmoId;
+    }
+
+    private static void assertCmoIdsFail(LimsRestCmoIdClient client, String expectedMessage) {
+        try {
+            getCmoIds(client, getViews(1, 1));
+            fail("Expected failure: " + expectedMessage);
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString(expectedMessage));
+        }
+    }
+
+    static List<CorrectedCmoSampleView> getViews(int patients, int samplesPerPatient) {
+        List<CorrectedCmoSampleView> views = new ArrayList<>();
+        for (int i = 0; i < patients; i++)
+            views.addAll(getPatientViews(String.format("C-PAT%03d", i), samplesPerPatient));
+
+        return views;
+    }
+
+    static List<CorrectedCmoSampleView> getPatientViews(String patientId, int samples) {
+        List<CorrectedCmoSampleView> views = new ArrayList<>();
+        for (int i = 0; i < samples; i++) {
+            CorrectedCmoSampleView view = new CorrectedCmoSampleView(String.format("%s_%d", patientId, i + 1));
+            view.setPatientId(patientId);
+            views.add(view);
+        }
+
+        return views;
+    }
+
+    static String getPatientId(String igoId) {
+        return igoId.substring(0, igoId.lastIndexOf('_'));
+    }
+}
@@ -0,0 +1,246 @@
+package com.velox.sloan;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mskcc.domain.sample.Sample;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LocalCmoIdEngineTest {
+    private FakeLims fakeLims;
+    private PatientCmoIdIndex patientIndex;
+    private int patients;
+
+    @Before
+    public void setUp() {
+        fakeLims = new FakeLims(0);
+        patientIndex = new PatientCmoIdIndex(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    @Test
+    public void whenSampleClassHasAbbreviation_shouldComputeIdWithIt() throws Exception {
+        Object[][] sampleClassesAndIds = {
+                {"Primary", "DNA", "P001-d"},
+                {"Metastasis", "DNA", "M001-d"},
+                {"Local Recurrence", "DNA", "R001-d"},
+                {"Recurrence", "RNA", "R001-r"},
+                {"Normal", "DNA", "N001-d"},
+                {"Adjacent Normal", "DNA", "N001-d"},
+                {"Unknown Tumor", "RNA", "T001-r"}
+        };
+
+        for (Object[] sampleClassAndId : sampleClassesAndIds) {
+            String patientId = newPatient();
+            String cmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_1", patientId,
+                    (String) sampleClassAndId[0], "Biopsy", null), (String) sampleClassAndId[1]);
+
+            assertThat(cmoId, is(patientId + "-" + sampleClassAndId[2]));
+        }
+    }
+
+    @Test
+    public void whenSpecimenTypeHasAbbreviation_shouldComputeIdWithItInsteadOfSampleClass() throws Exception {
+        Object[][] specimenTypesAndIds = {
+                {"PDX", "X001-d"},
+                {"Xenograft", "X001-d"},
+                {"XenograftDerivedCellLine", "X001-d"},
+                {"Organoid", "G001-d"}
+        };
+
+        for (Object[] specimenTypeAndId : specimenTypesAndIds) {
+            String patientId = newPatient();
+            String cmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_1", patientId,
+                    "Primary", (String) specimenTypeAndId[0], null), "DNA");
+
+            assertThat(cmoId, is(patientId + "-" + specimenTypeAndId[1]));
+        }
+    }
+
+    @Test
+    public void whenSpecimenTypeIsCellLine_shouldComputeIdFromUserSampleIdAndRequest() throws Exception {
+        String patientId = newPatient();
+
+        String cmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_1", patientId, null,
+                "CellLine", null), "DNA");
+
+        assertThat(cmoId, is("user_" + patientId + "_1-06000_A"));
+    }
+
+    @Test
+    public void whenEngineDoesNotKnowValue_shouldLeaveSampleToLimsRest() throws Exception {
+        String patientId = newPatient();
+        LocalCmoIdEngine engine = new LocalCmoIdEngine(patientIndex);
+
+        assertThat(resolve(engine, getFields(patientId + "_1", patientId, "Other", "Biopsy", null), "DNA"),
+                is(nullValue()));
+        assertThat(resolve(engine, getFields(patientId + "_2", patientId, "Primary", "Biopsy", null), "cfDNA"),
+                is(nullValue()));
+        assertThat(resolve(engine, getFields(patientId + "_3", "", "Primary", "Biopsy", null), "DNA"), is
+                (nullValue()));
+    }
+
+    @Test
+    public void whenPatientIsNotIndexed_shouldLeaveSampleToLimsRest() {
+        String patientId = newPatient();
+
+        String cmoId = new LocalCmoIdEngine(patientIndex).resolve(getFields(patientId + "_1", patientId, "Primary",
+                "Biopsy", null), getParentSample("DNA"));
+
+        assertThat(cmoId, is(nullValue()));
+    }
+
+    @Test
+    public void whenCurrentIdHasSameAbbreviations_shouldKeepIt() throws Exception {
+        String patientId = newPatient();
+        saveSample(patientId + "_1", patientId, patientId + "-P001-d");
+
+        String cmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_2", patientId,
+                "Primary", "Biopsy", patientId + "-P005-d"), "DNA");
+
+        assertThat(cmoId, is(patientId + "-P005-d"));
+    }
+
+    @Test
+    public void whenPatientHasSavedSamples_shouldGiveOutNextCounterOfSampleType() throws Exception {
+        String patientId = newPatient();
+        saveSample(patientId + "_1", patientId, patientId + "-P001-d");
+        saveSample(patientId + "_2", patientId, patientId + "-P002-r");
+        saveSample(patientId + "_3", patientId, patientId + "-M007-d");
+        LocalCmoIdEngine engine = new LocalCmoIdEngine(patientIndex);
+
+        assertThat(resolve(engine, getFields(patientId + "_4", patientId, "Primary", "Biopsy", null), "DNA"), is
+                (patientId + "-P003-d"));
+        assertThat(resolve(engine, getFields(patientId + "_5", patientId, "Metastasis", "Biopsy", null), "RNA"),
+                is(patientId + "-M008-r"));
+    }
+
+    @Test
+    public void whenRunsResolveSamplesOfSamePatient_shouldReserveDifferentCounters() throws Exception {
+        String patientId = newPatient();
+
+        String firstRunCmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_1", patientId,
+                "Primary", "Biopsy", null), "DNA");
+        String secondRunCmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_2", patientId,
+                "Primary", "Biopsy", null), "DNA");
+
+        assertThat(firstRunCmoId, is(patientId + "-P001-d"));
+        assertThat(secondRunCmoId, is(patientId + "-P002-d"));
+    }
+
+    @Test
+    public void whenRunResolvesSampleAgain_shouldReplaceItsOwnReservation() throws Exception {
+        String patientId = newPatient();
+        SampleCmoInfoFields fields = getFields(patientId + "_1", patientId, "Primary", "Biopsy", null);
+
+        String firstRunCmoId = resolve(new LocalCmoIdEngine(patientIndex), fields, "DNA");
+        String secondRunCmoId = resolve(new LocalCmoIdEngine(patientIndex), fields, "DNA");
+
+        assertThat(firstRunCmoId, is(patientId + "-P001-d"));
+        assertThat(secondRunCmoId, is(firstRunCmoId));
+    }
+
+    @Test
+    public void whenReservationIsReleased_shouldGiveOutItsCounterAgain() throws Exception {
+        String patientId = newPatient();
+        String savedCmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_1", patientId,
+                "Primary", "Biopsy", null), "DNA");
+        patientIndex.put(patientId, patientId + "_1", savedCmoId);
+        String releasedCmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_2", patientId,
+                "Primary", "Biopsy", null), "DNA");
+        patientIndex.release(patientId, Collections.singletonList(patientId + "_2"));
+
+        String cmoId = resolve(new LocalCmoIdEngine(patientIndex), getFields(patientId + "_3", patientId,
+                "Primary", "Biopsy", null), "DNA");
+
+        assertThat(releasedCmoId, is(patientId + "-P002-d"));
+        assertThat(cmoId, is(patientId + "-P002-d"));
+    }
+
+    @Test
+    public void whenRunsResolveSamplesOfSamePatientConcurrently_shouldNeverGiveOutSameCounter() throws Exception {
+        String patientId = newPatient();
+        patientIndex.load(fakeLims.getDataRecordManager(), Collections.singleton(patientId), null);
+        int runs = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(runs);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<String>> cmoIds = new ArrayList<>();
+            for (int i = 1; i <= runs; i++) {
+                SampleCmoInfoFields fields = getFields(patientId + "_" + i, patientId, "Primary", "Biopsy", null);
+                cmoIds.add(executor.submit(() -> {
+                    start.await();
+                    return new LocalCmoIdEngine(patientIndex).resolve(fields, getParentSample("DNA"));
+                }));
+            }
+            start.countDown();
+
+            Set<String> distinctCmoIds = new HashSet<>();
+            for (Future<String> cmoId : cmoIds)
+                assertTrue("Duplicate: " + cmoId.get(), distinctCmoIds.add(cmoId.get()));
+            for (int counter = 1; counter <= runs; counter++)
+                assertTrue(distinctCmoIds.contains(String.format("%s-P%03d-d", patientId, counter)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void abbreviatedValuesShouldBeValidDomainValues() {
+        for (String specimenType : LocalCmoIdEngine.SPECIMEN_TYPE_ABBREVIATIONS.keySet())
+            assertTrue(specimenType, SampleFieldLookups.SPECIMEN_TYPE.lookup(specimenType).isValid());
+        for (String sampleClass : LocalCmoIdEngine.SAMPLE_CLASS_ABBREVIATIONS.keySet())
+            assertTrue(sampleClass, SampleFieldLookups.SAMPLE_CLASS.lookup(sampleClass).isValid());
+        for (String nucleicAcid : LocalCmoIdEngine.NUCLEIC_ACID_ABBREVIATIONS.keySet())
+            assertTrue(nucleicAcid, SampleFieldLookups.NUCLEIC_ACID.lookup(nucleicAcid).isValid());
+    }
+
+    private String newPatient() {
+        return String.format("C-ENG%03d", ++patients);
+    }
+
+    private String resolve(LocalCmoIdEngine engine, SampleCmoInfoFields fields, String naToExtract) throws
+            Exception {
+        if (!fields.getCmoPatientId().isEmpty())
+            patientIndex.load(fakeLims.getDataRecordManager(), Collections.singleton(fields.getCmoPatientId()), null);
+
+        return engine.resolve(fields, getParentSample(naToExtract));
+    }
+
+    private void saveSample(String igoId, String patientId, String correctedCmoId) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(SampleCmoInfoFields.SAMPLE_ID, igoId);
+        fields.put(SampleCmoInfoFields.CMO_PATIENT_ID, patientId);
+        fields.put(SampleCmoInfoFields.CORRECTED_CMO_ID, correctedCmoId);
+        fakeLims.createSampleCmoInfoRecord(fields);
+    }
+
+    private static SampleCmoInfoFields getFields(String igoId, String patientId, String sampleClass, String
+            specimenType, String correctedCmoId) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(SampleCmoInfoFields.SAMPLE_ID, igoId);
+        fields.put(SampleCmoInfoFields.CMO_PATIENT_ID, patientId);
+        fields.put(SampleCmoInfoFields.USER_SAMPLE_ID, "user_" + igoId);
+        fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, specimenType);
+        fields.put(SampleCmoInfoFields.REQUEST_ID, "06000_A");
+        if (sampleClass != null)
+            fields.put(SampleCmoInfoFields.CMO_SAMPLE_CLASS, sampleClass);
+        if (correctedCmoId != null)
+            fields.put(SampleCmoInfoFields.CORRECTED_CMO_ID, correctedCmoId);
+
+        return SampleCmoInfoFields.from(fields);
+    }
+
+    private static ParentSampleIndex.ParentSample getParentSample(String naToExtract) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(Sample.NATO_EXTRACT, naToExtract);
+
+        return new ParentSampleIndex.ParentSample(null, fields);
+    }
+}
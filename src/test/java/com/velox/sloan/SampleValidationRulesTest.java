@@ -0,0 +1,161 @@
+package com.velox.sloan;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mskcc.domain.sample.Sample;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SampleValidationRulesTest {
+    private static final String IGO_ID = "06000_A_1";
+    private static final List<String> DEFAULT_RULES_SPECIMEN_TYPES = Arrays.asList("Biopsy", "PDX", "Xenograft",
+            "XenograftDerivedCellLine", "Organoid");
+
+    private Map<String, Object> fields;
+    private Map<String, Object> parentFields;
+    private RegenerationErrorCollector errors;
+
+    @Before
+    public void setUp() {
+        fields = new HashMap<>();
+        fields.put(SampleCmoInfoFields.SAMPLE_ID, IGO_ID);
+        fields.put(SampleCmoInfoFields.CMO_PATIENT_ID, "C-PAT001");
+        fields.put(SampleCmoInfoFields.CMO_SAMPLE_CLASS, "Primary");
+        fields.put(SampleCmoInfoFields.SAMPLE_ORIGIN, "Tissue");
+        fields.put(SampleCmoInfoFields.REQUEST_ID, "06000_A");
+
+        parentFields = new HashMap<>();
+        parentFields.put(Sample.NATO_EXTRACT, "DNA");
+        parentFields.put(Sample.EXEMPLAR_SAMPLE_TYPE, "DNA");
+
+        errors = new RegenerationErrorCollector(100);
+    }
+
+    @Test
+    public void whenSpecimenTypeIsEmpty_shouldReportItWithoutRunningRules() {
+        fields.remove(SampleCmoInfoFields.CMO_PATIENT_ID);
+
+        validate(true);
+
+        assertErrors(1, "Specimen Type is empty");
+    }
+
+    @Test
+    public void whenSpecimenTypeIsInvalid_shouldReportItWithoutRunningRules() {
+        fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, "Unknown specimen");
+        fields.remove(SampleCmoInfoFields.CMO_PATIENT_ID);
+
+        validate(true);
+
+        assertErrors(1, "Unsupported Specimen Type: Unknown specimen");
+    }
+
+    @Test
+    public void whenCellLineHasRequestId_shouldNotCheckPatientSampleClassOriginOrParent() {
+        fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, "CellLine");
+        fields.remove(SampleCmoInfoFields.CMO_PATIENT_ID);
+        fields.put(SampleCmoInfoFields.CMO_SAMPLE_CLASS, "Unknown class");
+        fields.put(SampleCmoInfoFields.SAMPLE_ORIGIN, "Unknown origin");
+
+        validate(false);
+
+        assertThat(errors.size(), is(0));
+    }
+
+    @Test
+    public void whenCellLineHasNoRequestId_shouldReportIt() {
+        fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, "CellLine");
+        fields.remove(SampleCmoInfoFields.REQUEST_ID);
+
+        validate(true);
+
+        assertErrors(1, "Request is id empty");
+    }
+
+    @Test
+    public void whenSpecimenTypeWithDefaultRulesHasAllFields_shouldReportNoErrors() {
+        for (String specimenType : DEFAULT_RULES_SPECIMEN_TYPES) {
+            fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, specimenType);
+            fields.remove(SampleCmoInfoFields.REQUEST_ID);
+
+            validate(true);
+
+            assertThat(specimenType, errors.size(), is(0));
+        }
+    }
+
+    @Test
+    public void whenSpecimenTypeWithDefaultRulesHasNoPatientId_shouldReportIt() {
+        fields.remove(SampleCmoInfoFields.CMO_PATIENT_ID);
+
+        for (String specimenType : DEFAULT_RULES_SPECIMEN_TYPES) {
+            errors = new RegenerationErrorCollector(100);
+            fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, specimenType);
+
+            validate(true);
+
+            assertErrors(1, "Cmo Patient id is empty");
+        }
+    }
+
+    @Test
+    public void whenSpecimenTypeWithDefaultRulesHasInvalidSampleClassAndOrigin_shouldReportBoth() {
+        fields.put(SampleCmoInfoFields.CMO_SAMPLE_CLASS, "Unknown class");
+        fields.put(SampleCmoInfoFields.SAMPLE_ORIGIN, "Unknown origin");
+
+        for (String specimenType : DEFAULT_RULES_SPECIMEN_TYPES) {
+            errors = new RegenerationErrorCollector(100);
+            fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, specimenType);
+
+            validate(true);
+
+            assertErrors(2, "Unsupported Sample Class: Unknown class");
+            assertErrors(2, "Unsupported Sample Origin: Unknown origin");
+        }
+    }
+
+    @Test
+    public void whenSpecimenTypeWithDefaultRulesHasNoParentSample_shouldReportIt() {
+        fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, "Biopsy");
+
+        validate(false);
+
+        assertErrors(1, "No parent samples found");
+    }
+
+    @Test
+    public void whenSpecimenTypeWithDefaultRulesHasInvalidOrEmptyParentSampleType_shouldReportIt() {
+        fields.put(SampleCmoInfoFields.SPECIMEN_TYPE, "Biopsy");
+        parentFields.put(Sample.EXEMPLAR_SAMPLE_TYPE, "Unknown type");
+
+        validate(true);
+        assertErrors(1, "Unsupported Sample Type: Unknown type");
+
+        errors = new RegenerationErrorCollector(100);
+        parentFields.remove(Sample.EXEMPLAR_SAMPLE_TYPE);
+
+        validate(true);
+        assertErrors(1, "Sample Type of parent sample is empty");
+    }
+
+    private void validate(boolean withParentSample) {
+        SampleCmoInfoFields sampleFields = SampleCmoInfoFields.from(fields);
+        ParsedSampleFields parsed = withParentSample ? ParsedSampleFields.of(sampleFields, new ParentSampleIndex
+                .ParentSample(null, parentFields), null) : ParsedSampleFields.of(sampleFields, null, "No parent " +
+                "samples found for Sample Level Info record with igo id: " + IGO_ID);
+
+        SampleValidationRules.validate(sampleFields, parsed, errors);
+    }
+
+    private void assertErrors(int expectedErrors, String expectedError) {
+        assertThat(errors.size(), is(expectedErrors));
+        assertThat(errors.render(10_000), containsString(expectedError));
+    }
+}
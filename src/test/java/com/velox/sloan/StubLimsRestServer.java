@@ -0,0 +1,195 @@
+package com.velox.sloan;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embedded stub of LimsRest getBulkSampleCmoIdsFromParams endpoint for tests and benchmarks. It answers with CMO
+ * Sample Id derived from igo id of every received Corrected Cmo Sample View after configured latency. Faults can be
+ * injected: every n-th request fails with 503 and every m-th request is answered with additional delay. Smile is
+ * accepted and preferred in response unless Smile support is turned off, then Smile request is rejected with 415. Igo
+ * ids and content type of every received request and max number of requests in flight are recorded.
+ */
+class StubLimsRestServer implements Closeable {
+    static final String CMO_ID_ENDPOINT = "getBulkSampleCmoIdsFromParams";
+    static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper smileObjectMapper = new ObjectMapper(new SmileFactory());
+    private final long latencyMillis;
+    private final HttpServer server;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<List<String>> receivedIgoIds = new CopyOnWriteArrayList<>();
+    private final List<String> requestContentTypes = new CopyOnWriteArrayList<>();
+    private volatile int failEvery;
+    private volatile int failStatus = 503;
+    private volatile int slowEvery;
+    private volatile long slowLatencyMillis;
+    private volatile boolean smileSupported = true;
+
+    StubLimsRestServer(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/" + CMO_ID_ENDPOINT, this::handleCmoIds);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    void setFailEvery(int failEvery) {
+        this.failEvery = failEvery;
+    }
+
+    /**
+     * Sets http status of failed requests, 503 by default.
+     */
+    void setFailStatus(int failStatus) {
+        this.failStatus = failStatus;
+    }
+
+    void setSlowEvery(int slowEvery, long slowLatencyMillis) {
+        this.slowEvery = slowEvery;
+        this.slowLatencyMillis = slowLatencyMillis;
+    }
+
+    void setSmileSupported(boolean smileSupported) {
+        this.smileSupported = smileSupported;
+    }
+
+    /**
+     * @return igo ids of every successfully parsed request in order of arrival
+     */
+    List<List<String>> getReceivedIgoIds() {
+        return receivedIgoIds;
+    }
+
+    /**
+     * @return content type of every request which didn't fail with 503, including rejected Smile requests
+     */
+    List<String> getRequestContentTypes() {
+        return requestContentTypes;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Writes properties file pointing plugin to this stub with delta regeneration disabled so that every call
+     * reaches the stub.
+     */
+    File writePropertiesFile(Properties overrides) throws IOException {
+        Properties prop = new Properties();
+        prop.setProperty("lims.rest.url", getUrl());
+        prop.setProperty("lims.rest.username", "benchmark");
+        prop.setProperty("lims.rest.password", "benchmark");
+        prop.setProperty("lims.rest.cmoid.endpoint", CMO_ID_ENDPOINT);
+        prop.setProperty("profile", Profile.PROD.toString());
+        prop.setProperty("cmoid.delta.enabled", "false");
+        prop.putAll(overrides);
+
+        File file = File.createTempFile("cmo-sample-id-regeneration", ".properties");
+        file.deleteOnExit();
+        try (OutputStream output = new FileOutputStream(file)) {
+            prop.store(output, "benchmark");
+        }
+
+        return file;
+    }
+
+    private void handleCmoIds(HttpExchange exchange) throws IOException {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            handleCmoIdsRequest(exchange);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void handleCmoIdsRequest(HttpExchange exchange) throws IOException {
+        long request = requests.incrementAndGet();
+        if (failEvery > 0 && request % failEvery == 0) {
+            exchange.sendResponseHeaders(failStatus, -1);
+            exchange.close();
+            return;
+        }
+
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        requestContentTypes.add(String.valueOf(contentType));
+        boolean smileRequest = isSmile(contentType);
+        if (smileRequest && !smileSupported) {
+            exchange.sendResponseHeaders(415, -1);
+            exchange.close();
+            return;
+        }
+
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+            body = new GZIPInputStream(body);
+
+        JsonNode views = (smileRequest ? smileObjectMapper : objectMapper).readTree(body);
+        ObjectNode igoIdToCmoId = objectMapper.createObjectNode();
+        List<String> igoIds = new ArrayList<>();
+        for (JsonNode view : views) {
+            String igoId = view.path("id").asText();
+            igoIds.add(igoId);
+            igoIdToCmoId.put(igoId, "C-" + igoId.replace('_', '-') + "-d");
+        }
+        receivedIgoIds.add(igoIds);
+
+        sleep(latencyMillis);
+        if (slowEvery > 0 && request % slowEvery == 0)
+            sleep(slowLatencyMillis);
+
+        boolean smileResponse = smileSupported && isSmile(exchange.getRequestHeaders().getFirst("Accept"));
+        byte[] response = (smileResponse ? smileObjectMapper : objectMapper).writeValueAsBytes(igoIdToCmoId);
+        exchange.getResponseHeaders().set("Content-Type", smileResponse ? SMILE_CONTENT_TYPE : "application/json");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(response);
+        }
+    }
+
+    private static boolean isSmile(String header) {
+        return header != null && header.contains(SMILE_CONTENT_TYPE);
+    }
+
+    private static void sleep(long latencyMillis) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}